@@ -0,0 +1,360 @@
+package z3;
+
+import genius.core.Bid;
+import genius.core.issue.*;
+import genius.extended.Z3Domain;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A length prefixed binary alternative to the ";;;" text protocol, for large bid rankings. Every frame starts with
+ * the MAGIC number followed by the length of the payload - as no text message can start with the MAGIC bytes the
+ * server can tell which protocol a client is using from the first 4 bytes it receives.
+ *
+ * Request payload: version, opcode, the issues (a type byte, then the value names of a discrete issue or the bounds
+ * of an integer issue), the low and high bid utilities, then each bid as one value per issue - the value index for
+ * discrete issues and the value itself for integer issues. Counts, indices and integer values are written as varints.
+ * Optionally followed by the most bids the solver should be given, if the client wants the ranking compressed.
+ *
+ * Response payload: a status byte, then for a model the utilities of each issue followed by the weight of each issue,
+ * all as raw doubles. Optionally followed by the compression statistics (original, duplicate, sampled and implied bid
+ * counts), only if the request asked for compression.
+ */
+public class BinaryProtocol {
+    public static final int MAGIC = 0x5A334742;     // "Z3GB" - the text protocol always starts with an opcode, i.e. "B"
+    public static final byte VERSION = 1;
+
+    public static final byte BUILD_MODEL = 1;
+
+    public static final byte STATUS_MODEL = 0;
+    public static final byte STATUS_ERROR = 1;
+
+    private static final byte DISCRETE = 0;
+    private static final byte INTEGER = 1;
+
+    // Guards against allocating a huge buffer when a frame header is corrupt
+    private static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+
+    /**
+     * Encodes a request to build a model
+     *
+     * @param request - the issues, ranked bids and bounds to send
+     * @return - the payload of the request frame
+     */
+    public static ByteBuffer encodeRequest(ModelRequest request) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(VERSION);
+        out.write(BUILD_MODEL);
+
+        List<Issue> issues = request.getIssues();
+        writeVarint(out, issues.size());
+
+        for (Issue issue : issues) {
+            if (issue.getType() == ISSUETYPE.DISCRETE) {
+                IssueDiscrete disIssue = (IssueDiscrete) issue;
+                out.write(DISCRETE);
+                writeVarint(out, disIssue.getNumberOfValues());
+
+                for (ValueDiscrete value : disIssue.getValues()) {
+                    byte[] name = value.getValue().getBytes(StandardCharsets.UTF_8);
+                    writeVarint(out, name.length);
+                    out.write(name, 0, name.length);
+                }
+            } else if (issue.getType() == ISSUETYPE.INTEGER) {
+                out.write(INTEGER);
+                writeVarint(out, zigZag(((IssueInteger) issue).getLowerBound()));
+                writeVarint(out, zigZag(((IssueInteger) issue).getUpperBound()));
+            }
+        }
+
+        writeDouble(out, request.getLowBound());
+        writeDouble(out, request.getHighBound());
+
+        writeVarint(out, request.getBids().size());
+        for (Bid bid : request.getBids()) {
+            for (Issue issue : issues) {
+                if (issue.getType() == ISSUETYPE.DISCRETE) {
+                    writeVarint(out, ((IssueDiscrete) issue).getValueIndex((ValueDiscrete) bid.getValue(issue)));
+                } else if (issue.getType() == ISSUETYPE.INTEGER) {
+                    writeVarint(out, zigZag(((ValueInteger) bid.getValue(issue)).getValue()));
+                }
+            }
+        }
+
+        // Older servers stop reading after the bids, so the optional fields go at the end
+        if (request.getMaxBids() > 0) {
+            writeVarint(out, request.getMaxBids());
+        }
+
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * Decodes a request to build a model, recreating the issues and bids using the GENIUS classes
+     *
+     * @param payload - the payload of the request frame
+     * @return - the decoded request
+     * @throws Z3ParseException - if the payload is not a valid request
+     */
+    public static ModelRequest decodeRequest(ByteBuffer payload) throws Z3ParseException {
+        try {
+            if (payload.get() != VERSION || payload.get() != BUILD_MODEL) {
+                throw new Z3ParseException();
+            }
+
+            int issueCount = readVarint(payload);
+            final List<Issue> issues = new ArrayList<>(issueCount);
+
+            for (int issueIndex = 0; issueIndex < issueCount; issueIndex++) {
+                byte type = payload.get();
+
+                if (type == DISCRETE) {
+                    String[] values = new String[readVarint(payload)];
+                    for (int valueIndex = 0; valueIndex < values.length; valueIndex++) {
+                        byte[] name = new byte[readVarint(payload)];
+                        payload.get(name);
+                        values[valueIndex] = new String(name, StandardCharsets.UTF_8);
+                    }
+                    issues.add(new IssueDiscrete(String.valueOf(issueIndex), issueIndex, values));
+                } else if (type == INTEGER) {
+                    int lower = unZigZag(readVarint(payload));
+                    int upper = unZigZag(readVarint(payload));
+                    issues.add(new IssueInteger(String.valueOf(issueIndex), issueIndex, lower, upper));
+                } else {
+                    throw new Z3ParseException();
+                }
+            }
+
+            double lowBound = payload.getDouble();
+            double highBound = payload.getDouble();
+
+            // A special Z3Domain is created as the default one is package private so cannot be instantiated here
+            Z3Domain domain = new Z3Domain(issues);
+            int bidCount = readVarint(payload);
+            List<Bid> bids = new ArrayList<>(bidCount);
+
+            for (int bidIndex = 0; bidIndex < bidCount; bidIndex++) {
+                HashMap<Integer, Value> bidMap = new HashMap<>();
+
+                for (Issue issue : issues) {
+                    if (issue.getType() == ISSUETYPE.DISCRETE) {
+                        bidMap.put(issue.getNumber(), ((IssueDiscrete) issue).getValue(readVarint(payload)));
+                    } else {
+                        bidMap.put(issue.getNumber(), new ValueInteger(unZigZag(readVarint(payload))));
+                    }
+                }
+                bids.add(new Bid(domain, bidMap));
+            }
+
+            int maxBids = payload.hasRemaining() ? readVarint(payload) : 0;
+
+            return new ModelRequest(issues, bids, lowBound, highBound, maxBids);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+            throw new Z3ParseException();
+        }
+    }
+
+    /**
+     * Encodes the response to a request
+     *
+     * @param result - the estimated model, or null if the model could not be built
+     * @return - the payload of the response frame
+     * @throws Z3ParseException - if an issue of the model is neither discrete nor an integer issue
+     */
+    public static ByteBuffer encodeResult(ModelResult result) throws Z3ParseException {
+        if (result == null) {
+            return encodeError();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(STATUS_MODEL);
+        writeVarint(out, result.getIssueCount());
+
+        for (int issueIndex = 0; issueIndex < result.getIssueCount(); issueIndex++) {
+            if (result.getDiscreteUtilities(issueIndex) != null) {
+                out.write(DISCRETE);
+                writeVarint(out, result.getDiscreteUtilities(issueIndex).length);
+                for (double utility : result.getDiscreteUtilities(issueIndex)) {
+                    writeDouble(out, utility);
+                }
+            } else if (result.getIntegerUtilities(issueIndex) != null) {
+                out.write(INTEGER);
+                writeDouble(out, result.getIntegerUtilities(issueIndex)[0]);
+                writeDouble(out, result.getIntegerUtilities(issueIndex)[1]);
+            } else {
+                throw new Z3ParseException();
+            }
+        }
+
+        for (int issueIndex = 0; issueIndex < result.getIssueCount(); issueIndex++) {
+            writeDouble(out, result.getWeight(issueIndex));
+        }
+
+        if (result.getStats() != null) {
+            writeVarint(out, result.getStats().getOriginal());
+            writeVarint(out, result.getStats().getDuplicates());
+            writeVarint(out, result.getStats().getSampled());
+            writeVarint(out, result.getStats().getImplied());
+        }
+
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * Encodes the response to a request which could not be answered
+     *
+     * @return - the payload of the error response frame
+     */
+    public static ByteBuffer encodeError() {
+        return ByteBuffer.wrap(new byte[]{STATUS_ERROR});
+    }
+
+    /**
+     * Decodes the response to a request
+     *
+     * @param payload - the payload of the response frame
+     * @return - the estimated model
+     * @throws Z3ParseException - if the server sent an error, or the payload is not valid
+     */
+    public static ModelResult decodeResult(ByteBuffer payload) throws Z3ParseException {
+        try {
+            if (payload.get() != STATUS_MODEL) {
+                throw new Z3ParseException();
+            }
+
+            ModelResult result = new ModelResult(readVarint(payload));
+
+            for (int issueIndex = 0; issueIndex < result.getIssueCount(); issueIndex++) {
+                byte type = payload.get();
+
+                if (type == DISCRETE) {
+                    double[] utilities = new double[readVarint(payload)];
+                    for (int valueIndex = 0; valueIndex < utilities.length; valueIndex++) {
+                        utilities[valueIndex] = payload.getDouble();
+                    }
+                    result.setDiscreteUtilities(issueIndex, utilities);
+                } else if (type == INTEGER) {
+                    result.setIntegerUtilities(issueIndex, payload.getDouble(), payload.getDouble());
+                } else {
+                    throw new Z3ParseException();
+                }
+            }
+
+            for (int issueIndex = 0; issueIndex < result.getIssueCount(); issueIndex++) {
+                result.setWeight(issueIndex, payload.getDouble());
+            }
+
+            if (payload.hasRemaining()) {
+                int original = readVarint(payload);
+                int duplicates = readVarint(payload);
+                int sampled = readVarint(payload);
+                // Servers from before the implied bids were removed only send the first three
+                int implied = payload.hasRemaining() ? readVarint(payload) : 0;
+
+                result.setStats(new RankingCompressor.Stats(original, duplicates, implied, sampled));
+            }
+
+            return result;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new Z3ParseException();
+        }
+    }
+
+    /**
+     * Writes a whole frame (the magic number, the payload length and the payload) to the channel
+     */
+    public static void writeFrame(WritableByteChannel channel, ByteBuffer payload) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(MAGIC).putInt(payload.remaining()).flip();
+
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        while (payload.hasRemaining()) {
+            channel.write(payload);
+        }
+    }
+
+    /**
+     * Reads a whole frame from the channel
+     *
+     * @return - the payload of the frame
+     * @throws IOException - if the channel closes or the frame does not start with the magic number
+     */
+    public static ByteBuffer readFrame(ReadableByteChannel channel) throws IOException {
+        ByteBuffer magic = readFully(channel, 4);
+        if (magic.getInt() != MAGIC) {
+            throw new IOException("The frame does not start with the protocol's magic number");
+        }
+        return readFrameBody(channel);
+    }
+
+    /**
+     * Reads the rest of a frame, for when the magic number has already been read from the channel
+     *
+     * @return - the payload of the frame
+     */
+    public static ByteBuffer readFrameBody(ReadableByteChannel channel) throws IOException {
+        int length = readFully(channel, 4).getInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("The frame length is not valid: " + length);
+        }
+        return readFully(channel, length);
+    }
+
+    private static ByteBuffer readFully(ReadableByteChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("The connection closed part way through a frame");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) throws Z3ParseException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new Z3ParseException();
+    }
+
+    private static void writeDouble(ByteArrayOutputStream out, double value) {
+        long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (bits >>> shift));
+        }
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,14 @@
+package z3;
+
+/**
+ * Estimates the user's preferences from a ranking of bids. The Z3Service solves the ordering constraints with the
+ * native solver, while the LinearEstimator fits them in plain Java - much faster, but the model only follows the
+ * ranking as closely as a least squares fit can.
+ */
+public interface Estimator {
+    /**
+     * @param request - the issues, ranked bids (lowest first) and bounds to estimate from
+     * @return - the estimated model, or null if no model could be found
+     */
+    ModelResult estimate(ModelRequest request);
+}
@@ -0,0 +1,212 @@
+package z3;
+
+import genius.core.Bid;
+import genius.core.issue.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A fast estimator which does not need a solver - the utility of each value is fitted to the positions of the bids in
+ * the ranking with a (ridge regularised) least squares regression. Each discrete value is a 0/1 feature, and each
+ * integer issue is a single feature scaled between its bounds. The fitted coefficients are then scaled into GENIUS'
+ * additive form, i.e. the weight of each issue is its share of the total range of utility.
+ *
+ * Each bid only has one non-zero feature per issue, so the regression is solved with conjugate gradients on the
+ * sparse rows of the bids rather than by building and factorising the dense normal equations - the cost of each
+ * iteration grows with the number of bids and issues, not with the square of the number of values.
+ */
+public class LinearEstimator implements Estimator {
+    // Keeps the normal equations solvable when some values never appear in the ranking
+    private static final double REGULARISATION = 1e-3;
+    // The conjugate gradients stop once the residual is this small, relative to the right hand side
+    private static final double TOLERANCE = 1e-10;
+
+    /**
+     * @param request - the issues, ranked bids (lowest first) and bounds to estimate from
+     * @return - the estimated model
+     */
+    @Override
+    public ModelResult estimate(ModelRequest request) {
+        List<Issue> issues = request.getIssues();
+        List<Bid> bids = request.getBids();
+
+        // Each issue has a block of features, starting at offsets[issue], and the final feature is the intercept
+        int[] offsets = new int[issues.size()];
+        List<HashMap<ValueDiscrete, Integer>> valueIndices = new ArrayList<>();
+        int featureCount = 0;
+
+        for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+            Issue issue = issues.get(issueIndex);
+            offsets[issueIndex] = featureCount;
+            HashMap<ValueDiscrete, Integer> indices = null;
+
+            if (issue.getType() == ISSUETYPE.DISCRETE) {
+                IssueDiscrete disIssue = (IssueDiscrete) issue;
+                indices = new HashMap<>();
+                for (int valueIndex = 0; valueIndex < disIssue.getNumberOfValues(); valueIndex++) {
+                    indices.put(disIssue.getValue(valueIndex), valueIndex);
+                }
+                featureCount += disIssue.getNumberOfValues();
+            } else {
+                featureCount++;
+            }
+            valueIndices.add(indices);
+        }
+        int intercept = featureCount++;
+
+        // The non-zero features of each bid - one per issue, then the intercept - and its target, which is the bid's
+        // position in the ranking scaled between the low and high utility
+        int[][] columns = new int[bids.size()][issues.size() + 1];
+        double[][] rows = new double[bids.size()][issues.size() + 1];
+        double[] targets = new double[bids.size()];
+
+        for (int bidIndex = 0; bidIndex < bids.size(); bidIndex++) {
+            Bid bid = bids.get(bidIndex);
+
+            targets[bidIndex] = (bids.size() == 1) ? request.getHighBound() : request.getLowBound() +
+                    (request.getHighBound() - request.getLowBound()) * bidIndex / (bids.size() - 1.0);
+
+            for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+                Issue issue = issues.get(issueIndex);
+                Value value = bid.getValue(issue);
+
+                if (issue.getType() == ISSUETYPE.DISCRETE) {
+                    columns[bidIndex][issueIndex] = offsets[issueIndex] + valueIndices.get(issueIndex).get(value);
+                    rows[bidIndex][issueIndex] = 1.0;
+                } else if (issue.getType() == ISSUETYPE.INTEGER) {
+                    IssueInteger intIssue = (IssueInteger) issue;
+                    columns[bidIndex][issueIndex] = offsets[issueIndex];
+                    rows[bidIndex][issueIndex] = scale(intIssue, ((ValueInteger) value).getValue());
+                }
+            }
+            columns[bidIndex][issues.size()] = intercept;
+            rows[bidIndex][issues.size()] = 1.0;
+        }
+
+        double[] coefficients = solve(columns, rows, targets, featureCount);
+
+        return toResult(issues, offsets, coefficients);
+    }
+
+    /**
+     * Scales the fitted coefficients of each issue between 0 and 1, and weights each issue by its range of utility
+     */
+    private static ModelResult toResult(List<Issue> issues, int[] offsets, double[] coefficients) {
+        ModelResult result = new ModelResult(issues.size());
+        double[] ranges = new double[issues.size()];
+        double rangeSum = 0.0;
+
+        for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+            Issue issue = issues.get(issueIndex);
+
+            if (issue.getType() == ISSUETYPE.DISCRETE) {
+                int valueCount = ((IssueDiscrete) issue).getNumberOfValues();
+                double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+                for (int valueIndex = 0; valueIndex < valueCount; valueIndex++) {
+                    min = Math.min(min, coefficients[offsets[issueIndex] + valueIndex]);
+                    max = Math.max(max, coefficients[offsets[issueIndex] + valueIndex]);
+                }
+
+                ranges[issueIndex] = max - min;
+                double[] utilities = new double[valueCount];
+                for (int valueIndex = 0; valueIndex < valueCount; valueIndex++) {
+                    double scaled = (ranges[issueIndex] > 0)
+                            ? (coefficients[offsets[issueIndex] + valueIndex] - min) / ranges[issueIndex]
+                            : 1.0;
+                    utilities[valueIndex] = ModelResult.MIN_VALUE_UTILITY
+                            + (1 - ModelResult.MIN_VALUE_UTILITY) * scaled;
+                }
+                result.setDiscreteUtilities(issueIndex, utilities);
+            } else if (issue.getType() == ISSUETYPE.INTEGER) {
+                // The feature is already scaled between the bounds, so the coefficient is the utility gained from the
+                // lower to the upper bound
+                double slope = coefficients[offsets[issueIndex]];
+                ranges[issueIndex] = Math.abs(slope);
+                result.setIntegerUtilities(issueIndex, (slope >= 0) ? 0.0 : 1.0, (slope >= 0) ? 1.0 : 0.0);
+            }
+
+            rangeSum += ranges[issueIndex];
+        }
+
+        for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+            result.setWeight(issueIndex, (rangeSum > 0) ? ranges[issueIndex] / rangeSum : 1.0 / issues.size());
+        }
+
+        return result;
+    }
+
+    private static double scale(IssueInteger issue, int value) {
+        int width = issue.getUpperBound() - issue.getLowerBound();
+        return (width == 0) ? 0.0 : (value - issue.getLowerBound()) / (1.0 * width);
+    }
+
+    /**
+     * Solves the normal equations (X'X + rI) b = X'y with conjugate gradients, where X is given by the non-zero
+     * columns and values of each row. X'X is never built - each product with it is taken through the rows instead.
+     */
+    static double[] solve(int[][] columns, double[][] rows, double[] targets, int featureCount) {
+        double[] x = new double[featureCount];
+
+        // With x starting at zero, the residual starts as X'y
+        double[] residual = new double[featureCount];
+        for (int row = 0; row < rows.length; row++) {
+            for (int i = 0; i < columns[row].length; i++) {
+                residual[columns[row][i]] += rows[row][i] * targets[row];
+            }
+        }
+
+        double[] direction = residual.clone();
+        double[] product = new double[featureCount];
+        double residualNorm = dot(residual, residual);
+        double tolerance = TOLERANCE * TOLERANCE * residualNorm;
+
+        // In exact arithmetic the method converges within one iteration per feature
+        for (int iteration = 0; iteration < featureCount && residualNorm > tolerance; iteration++) {
+            multiply(columns, rows, direction, product);
+
+            double step = residualNorm / dot(direction, product);
+            for (int i = 0; i < featureCount; i++) {
+                x[i] += step * direction[i];
+                residual[i] -= step * product[i];
+            }
+
+            double nextNorm = dot(residual, residual);
+            for (int i = 0; i < featureCount; i++) {
+                direction[i] = residual[i] + (nextNorm / residualNorm) * direction[i];
+            }
+            residualNorm = nextNorm;
+        }
+
+        return x;
+    }
+
+    /**
+     * Writes (X'X + rI) v into out, by taking the product of v with each sparse row and adding it back along the row
+     */
+    private static void multiply(int[][] columns, double[][] rows, double[] v, double[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = REGULARISATION * v[i];
+        }
+
+        for (int row = 0; row < rows.length; row++) {
+            double rowProduct = 0.0;
+            for (int i = 0; i < columns[row].length; i++) {
+                rowProduct += rows[row][i] * v[columns[row][i]];
+            }
+            for (int i = 0; i < columns[row].length; i++) {
+                out[columns[row][i]] += rows[row][i] * rowProduct;
+            }
+        }
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
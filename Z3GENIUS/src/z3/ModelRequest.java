@@ -0,0 +1,54 @@
+package z3;
+
+import genius.core.Bid;
+import genius.core.issue.Issue;
+
+import java.util.List;
+
+/**
+ * The data required to build a model, independent of the protocol it was sent with: the issues of the domain, the
+ * ranked bids (ordered from lowest to highest) and the utilities of the lowest and highest ranked bids.
+ */
+public class ModelRequest {
+    private final List<Issue> issues;
+    private final List<Bid> bids;
+    private final double lowBound;
+    private final double highBound;
+    // The most bids the server should give to the solver, or 0 if the client has not asked for compression
+    private final int maxBids;
+
+    public ModelRequest(List<Issue> issues, List<Bid> bids, double lowBound, double highBound) {
+        this(issues, bids, lowBound, highBound, 0);
+    }
+
+    public ModelRequest(List<Issue> issues, List<Bid> bids, double lowBound, double highBound, int maxBids) {
+        this.issues = issues;
+        this.bids = bids;
+        this.lowBound = lowBound;
+        this.highBound = highBound;
+        this.maxBids = maxBids;
+    }
+
+    public List<Issue> getIssues() {
+        return issues;
+    }
+
+    public List<Bid> getBids() {
+        return bids;
+    }
+
+    public double getLowBound() {
+        return lowBound;
+    }
+
+    public double getHighBound() {
+        return highBound;
+    }
+
+    /**
+     * @return - the most bids to give to the solver, or 0 if the ranking should not be compressed
+     */
+    public int getMaxBids() {
+        return maxBids;
+    }
+}
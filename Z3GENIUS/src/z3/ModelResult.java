@@ -0,0 +1,251 @@
+package z3;
+
+import genius.core.Domain;
+import genius.core.issue.ISSUETYPE;
+import genius.core.issue.Issue;
+import genius.core.issue.IssueDiscrete;
+import genius.core.issue.IssueInteger;
+import genius.core.utility.AdditiveUtilitySpace;
+import genius.core.utility.EvaluatorDiscrete;
+import genius.core.utility.EvaluatorInteger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The estimated preferences produced by a model: the weight of each issue, the utility of each value of the discrete
+ * issues, and the utilities at the lower and upper bounds of the integer issues.
+ */
+public class ModelResult {
+    // The smallest utility the estimators give a discrete value, as the Z3 model also keeps all values above zero
+    static final double MIN_VALUE_UTILITY = 1e-3;
+
+    private final double[] weights;
+    // Indexed by [issue][value index], null for any issue which is not discrete
+    private final double[][] discreteUtilities;
+    // Indexed by [issue][0 = min util, 1 = max util], null for any issue which is not an integer issue
+    private final double[][] integerUtilities;
+    // How the ranking was compressed before solving, only sent back to clients which asked for compression
+    private RankingCompressor.Stats stats;
+
+    public ModelResult(int issueCount) {
+        this.weights = new double[issueCount];
+        this.discreteUtilities = new double[issueCount][];
+        this.integerUtilities = new double[issueCount][];
+    }
+
+    /**
+     * Writes the result in the text protocol format, to be joined by the protocol separator
+     *
+     * @return - a list of opcodes and data, starting with the MDL opcode
+     */
+    public String[] toMessage() {
+        List<String> returnData = new ArrayList<>();
+        returnData.add("MDL");
+
+        for (int issueCount = 0; issueCount < weights.length; issueCount++) {
+            if (discreteUtilities[issueCount] != null) {
+                // Indicate that this is the start of a discrete issue in the protocol format
+                returnData.add("DIS");
+
+                // For each discrete value, add the estimated utility/preference of that value to the return message
+                for (double utility : discreteUtilities[issueCount]) {
+                    returnData.add(Double.toString(utility));
+                }
+                returnData.add("EDIS");
+            } else if (integerUtilities[issueCount] != null) {
+                // Indicate that this is the start of a continuous issue in the protocol format
+                returnData.add("CON");      // Add the required values for the GENIUS utility space (the min and max utilities)
+                returnData.add(Double.toString(integerUtilities[issueCount][0]));
+                returnData.add(Double.toString(integerUtilities[issueCount][1]));
+                returnData.add("ECON");
+                // Close the continuous issue
+            }
+        }
+
+        // Finally, add the weights of each issue to the message
+        returnData.add("WHT");
+        for (double weight : weights) {
+            returnData.add(Double.toString(weight));
+        }
+        returnData.add("EWHT");
+
+        if (stats != null) {
+            returnData.add("STS");
+            returnData.add(Integer.toString(stats.getOriginal()));
+            returnData.add(Integer.toString(stats.getDuplicates()));
+            returnData.add(Integer.toString(stats.getSampled()));
+            returnData.add(Integer.toString(stats.getImplied()));
+            returnData.add("ESTS");
+        }
+
+        return returnData.toArray(new String[0]);       // Converts the arraylist to a string array
+    }
+
+    /**
+     * Parses a response written in the text protocol format
+     *
+     * @param data - the response, split by the protocol separator
+     * @param issueCount - the number of issues in the domain
+     * @return - the parsed result
+     * @throws Z3ParseException - if the response is an error, or is not valid
+     */
+    public static ModelResult fromMessage(String[] data, int issueCount) throws Z3ParseException {
+        // Checks that the response is actually model information based on the protocol
+        if (data.length == 0 || !data[0].equals("MDL")) {
+            throw new Z3ParseException();
+        }
+
+        ModelResult result = new ModelResult(issueCount);
+        int issueIndex = 0;
+
+        try {
+            for (int i = 1; i < data.length; i++) {
+                String currentCommand = data[i];
+
+                switch (currentCommand) {
+                    // Checks if data is the estimated continuous values
+                    case "CON":
+                        result.integerUtilities[issueIndex++] = new double[]{
+                                Double.parseDouble(data[++i]),
+                                Double.parseDouble(data[++i])
+                        };
+                        break;
+                    case "DIS":
+                        List<Double> utilities = new ArrayList<>();
+                        while (!data[i + 1].equals("EDIS")) {
+                            utilities.add(Double.parseDouble(data[++i]));
+                        }
+
+                        double[] values = new double[utilities.size()];
+                        for (int valueIndex = 0; valueIndex < values.length; valueIndex++) {
+                            values[valueIndex] = utilities.get(valueIndex);
+                        }
+                        result.discreteUtilities[issueIndex++] = values;
+                        break;
+                    case "WHT":
+                        issueIndex = 0;
+                        while (!data[i + 1].equals("EWHT")) {
+                            result.weights[issueIndex++] = Double.parseDouble(data[++i]);
+                        }
+                        break;
+                    case "STS":
+                        int original = Integer.parseInt(data[++i]);
+                        int duplicates = Integer.parseInt(data[++i]);
+                        int sampled = Integer.parseInt(data[++i]);
+                        // Servers from before the implied bids were removed only send the first three
+                        int implied = data[i + 1].equals("ESTS") ? 0 : Integer.parseInt(data[++i]);
+
+                        result.stats = new RankingCompressor.Stats(original, duplicates, implied, sampled);
+                        break;
+                    default:
+                        System.err.println("The provided command is not valid: " + currentCommand);
+                        throw new Z3ParseException();
+                }
+
+                // Should close the currentCommand or throw an error if the message is invalid
+                if (!data[++i].equals("E" + currentCommand)) {
+                    System.out.println("The closing command is not valid: " + data[i]);
+                    throw new Z3ParseException();
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new Z3ParseException();
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses the estimated values of the model into a utility space class
+     *
+     * @param domain - the domain the model was built for, with its issues in the same order as the request
+     * @return - an additive utility space for the domain
+     */
+    public AdditiveUtilitySpace toUtilitySpace(Domain domain) {
+        AdditiveUtilitySpace utilSpace = new AdditiveUtilitySpace(domain);
+        List<Issue> issues = domain.getIssues();
+
+        for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+            Issue issue = issues.get(issueIndex);
+
+            if (issue.getType() == ISSUETYPE.INTEGER) {
+                EvaluatorInteger evalCon = new EvaluatorInteger();
+                IssueInteger intIssue = (IssueInteger) issue;
+
+                // The linear function is defined between the bounds, so they must be set before it
+                evalCon.setLowerBound(intIssue.getLowerBound());
+                evalCon.setUpperBound(intIssue.getUpperBound());
+
+                // Builds an evaluator object using the minimum and maximum possible utilties
+                double[] utilities = integerUtilities[issueIndex];
+                evalCon.setLinearFunction(utilities[0], utilities[1]);
+
+                utilSpace.addEvaluator(issue, evalCon);
+            } else if (issue.getType() == ISSUETYPE.DISCRETE) {
+                EvaluatorDiscrete evalDis = new EvaluatorDiscrete();
+                IssueDiscrete issueDis = (IssueDiscrete) issue;
+                double[] utilities = discreteUtilities[issueIndex];
+
+                for (int valueIndex = 0; valueIndex < utilities.length; valueIndex++) {
+                    // Adds an evaluation for each possible value in the discrete issue
+                    evalDis.setEvaluationDouble(issueDis.getValue(valueIndex), utilities[valueIndex]);
+                }
+
+                utilSpace.addEvaluator(issueDis, evalDis);
+            }
+        }
+
+        // Adds the weights of each issue to the utility space also
+        for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+            utilSpace.setWeight(issues.get(issueIndex), weights[issueIndex]);
+        }
+
+        return utilSpace;
+    }
+
+    public int getIssueCount() {
+        return weights.length;
+    }
+
+    public double getWeight(int issueIndex) {
+        return weights[issueIndex];
+    }
+
+    public void setWeight(int issueIndex, double weight) {
+        weights[issueIndex] = weight;
+    }
+
+    /**
+     * @return - the utility of each value of the discrete issue, or null if the issue is not discrete
+     */
+    public double[] getDiscreteUtilities(int issueIndex) {
+        return discreteUtilities[issueIndex];
+    }
+
+    public void setDiscreteUtilities(int issueIndex, double[] utilities) {
+        discreteUtilities[issueIndex] = utilities;
+    }
+
+    /**
+     * @return - the utilities at the lower and upper bound of the integer issue, or null if it is not an integer issue
+     */
+    public double[] getIntegerUtilities(int issueIndex) {
+        return integerUtilities[issueIndex];
+    }
+
+    public void setIntegerUtilities(int issueIndex, double minUtil, double maxUtil) {
+        integerUtilities[issueIndex] = new double[]{minUtil, maxUtil};
+    }
+
+    /**
+     * @return - how the ranking was compressed before solving, or null if it was not
+     */
+    public RankingCompressor.Stats getStats() {
+        return stats;
+    }
+
+    public void setStats(RankingCompressor.Stats stats) {
+        this.stats = stats;
+    }
+}
@@ -0,0 +1,255 @@
+package z3;
+
+import genius.core.Bid;
+import genius.core.issue.ISSUETYPE;
+import genius.core.issue.Issue;
+import genius.core.issue.Value;
+import genius.core.issue.ValueInteger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Shrinks large bid rankings before they are given to the solver, as every ranked bid adds a variable and an ordering
+ * constraint. Two lossless passes always run, as they do not change which models satisfy the ranking:
+ * - repeated bids are removed
+ * - bids whose order against both of their neighbours is implied are removed, which collapses each run of such bids
+ * down to its ends
+ *
+ * The order of two neighbouring bids is implied when it holds in every model which satisfies the rest of the ranking:
+ * - when the higher bid dominates the lower one, i.e. they share every discrete value and the higher bid's integer
+ * values are at least as high (the model's integer utilities always increase with the value)
+ * - when the two bids differ in the same discrete values as an earlier pair of neighbours, whose integer values
+ * increased by no more, as the difference in their utilities is then at least as large
+ *
+ * The optimiser may break the order of any pair, so for it the second kind of removal means a repeated difference is
+ * only penalised once.
+ *
+ * Then, if the client asked for it and the ranking is still larger than the limit, a subset is sampled which keeps:
+ * - the lowest and highest bids, as they hold the utility bounds
+ * - at least one bid containing each discrete value, so that no value is left unconstrained
+ * - bids spread evenly through the rest of the ranking
+ *
+ * The limit is never exceeded (other than a limit below 2, as the lowest and highest bids are always kept). If the
+ * limit is too small to cover every discrete value, the values are covered in ranking order from the lowest bid.
+ *
+ * The ordering between the bids which are kept is implied by their order in the full ranking, so only the
+ * constraints between the kept neighbours are needed.
+ */
+public class RankingCompressor {
+    /**
+     * How much a ranking was reduced by, which is sent back to the client alongside the model
+     */
+    public static class Stats {
+        private final int original;
+        private final int duplicates;
+        private final int implied;
+        private final int sampled;
+
+        public Stats(int original, int duplicates, int implied, int sampled) {
+            this.original = original;
+            this.duplicates = duplicates;
+            this.implied = implied;
+            this.sampled = sampled;
+        }
+
+        /**
+         * @return - the number of bids in the ranking sent by the client
+         */
+        public int getOriginal() {
+            return original;
+        }
+
+        /**
+         * @return - the number of bids removed as they were already in the ranking
+         */
+        public int getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * @return - the number of bids removed as their order against their neighbours was implied
+         */
+        public int getImplied() {
+            return implied;
+        }
+
+        /**
+         * @return - the number of bids removed when sampling down to the limit
+         */
+        public int getSampled() {
+            return sampled;
+        }
+
+        /**
+         * @return - the number of bids given to the solver
+         */
+        public int getKept() {
+            return original - duplicates - implied - sampled;
+        }
+
+        @Override
+        public String toString() {
+            return "Ranking compressed from " + original + " to " + getKept() + " bids (" + duplicates +
+                    " duplicates, " + implied + " implied, " + sampled + " sampled out)";
+        }
+    }
+
+    private final int maxBids;
+    private Stats stats;
+
+    /**
+     * @param maxBids - the most bids to keep, or 0 to only run the lossless passes
+     */
+    public RankingCompressor(int maxBids) {
+        this.maxBids = maxBids;
+    }
+
+    /**
+     * @param request - the request containing the full ranking
+     * @return - the request with the compressed ranking, in the same order
+     */
+    public ModelRequest compress(ModelRequest request) {
+        List<Bid> bids = request.getBids();
+
+        // Only the first time a bid is ranked is kept - a repeated bid would force every bid between them to be equal
+        HashSet<Bid> seen = new HashSet<>();
+        List<Bid> unique = new ArrayList<>(bids.size());
+        for (Bid bid : bids) {
+            if (seen.add(bid)) {
+                unique.add(bid);
+            }
+        }
+
+        List<Bid> necessary = removeImplied(unique, request.getIssues());
+
+        List<Bid> kept = (maxBids > 0 && necessary.size() > Math.max(maxBids, 2))
+                ? sample(necessary, request.getIssues())
+                : necessary;
+
+        stats = new Stats(bids.size(), bids.size() - unique.size(), unique.size() - necessary.size(),
+                necessary.size() - kept.size());
+
+        return new ModelRequest(request.getIssues(), kept, request.getLowBound(), request.getHighBound());
+    }
+
+    /**
+     * @return - the statistics of the last ranking compressed
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Removes each bid whose order against both of its neighbours is implied. Replacing those two orderings with one
+     * between the neighbours loses nothing, as it follows from the two implied ones.
+     */
+    private static List<Bid> removeImplied(List<Bid> bids, List<Issue> issues) {
+        // The integer differences of every earlier pair of neighbours, grouped by the discrete values they differ in
+        HashMap<List<Object>, List<int[]>> earlier = new HashMap<>();
+        boolean[] implied = new boolean[Math.max(bids.size() - 1, 0)];
+
+        for (int bidIndex = 0; bidIndex < implied.length; bidIndex++) {
+            Bid lower = bids.get(bidIndex);
+            Bid higher = bids.get(bidIndex + 1);
+
+            List<Object> changed = new ArrayList<>();
+            int[] increases = new int[issues.size()];
+            boolean dominates = true;
+
+            for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+                Issue issue = issues.get(issueIndex);
+                Value from = lower.getValue(issue);
+                Value to = higher.getValue(issue);
+
+                if (issue.getType() == ISSUETYPE.INTEGER) {
+                    increases[issueIndex] = ((ValueInteger) to).getValue() - ((ValueInteger) from).getValue();
+                    dominates &= increases[issueIndex] >= 0;
+                } else if (!from.equals(to)) {
+                    changed.add(issueIndex);
+                    changed.add(from);
+                    changed.add(to);
+                }
+            }
+
+            if (changed.isEmpty() && dominates) {
+                implied[bidIndex] = true;
+            } else {
+                List<int[]> pairs = earlier.computeIfAbsent(changed, k -> new ArrayList<>());
+                for (int[] pair : pairs) {
+                    if (atMost(pair, increases)) {
+                        implied[bidIndex] = true;
+                        break;
+                    }
+                }
+                pairs.add(increases);
+            }
+        }
+
+        // The lowest and highest bids are always kept, as they hold the utility bounds
+        List<Bid> kept = new ArrayList<>();
+        for (int bidIndex = 0; bidIndex < bids.size(); bidIndex++) {
+            if (bidIndex == 0 || bidIndex == bids.size() - 1 || !implied[bidIndex - 1] || !implied[bidIndex]) {
+                kept.add(bids.get(bidIndex));
+            }
+        }
+        return kept;
+    }
+
+    private static boolean atMost(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] > b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<Bid> sample(List<Bid> bids, List<Issue> issues) {
+        int limit = Math.max(maxBids, 2);
+        boolean[] keep = new boolean[bids.size()];
+        keep[0] = true;
+        keep[bids.size() - 1] = true;
+        int keptCount = 2;
+
+        // Keep the first bid which contains each discrete value, for as long as there is room within the limit
+        List<HashSet<Value>> covered = new ArrayList<>();
+        for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+            covered.add(new HashSet<>());
+        }
+
+        for (int bidIndex = 0; bidIndex < bids.size() && keptCount < limit; bidIndex++) {
+            Bid bid = bids.get(bidIndex);
+            boolean coversNewValue = false;
+
+            for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+                Issue issue = issues.get(issueIndex);
+                if (issue.getType() == ISSUETYPE.DISCRETE && covered.get(issueIndex).add(bid.getValue(issue))) {
+                    coversNewValue = true;
+                }
+            }
+
+            if (coversNewValue && !keep[bidIndex]) {
+                keep[bidIndex] = true;
+                keptCount++;
+            }
+        }
+
+        // Fill the rest of the limit with bids evenly spaced through the ranking
+        int slots = limit - keptCount;
+        for (int slot = 1; slot <= slots; slot++) {
+            int bidIndex = (int) Math.round(slot * (bids.size() - 1.0) / (slots + 1));
+            keep[bidIndex] = true;
+        }
+
+        List<Bid> kept = new ArrayList<>();
+        for (int bidIndex = 0; bidIndex < bids.size(); bidIndex++) {
+            if (keep[bidIndex]) {
+                kept.add(bids.get(bidIndex));
+            }
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,55 @@
+package z3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stops a single request from another thread, e.g. once it has run out of time. Interrupting the thread running the
+ * request does not stop the native solver, so each context borrowed for the request is attached to its cancellation
+ * while it is in use, and cancelling shuts those contexts down. A context is detached before it goes back to its
+ * pool, so a cancellation never reaches a context which has moved on to another request.
+ */
+public class Z3Cancellation {
+    private final List<Z3ContextPool.PooledContext> contexts = new ArrayList<>();
+    // Why the request was cancelled, or null if it has not been
+    private String reason;
+
+    /**
+     * Shuts down the contexts the request is using, and any it borrows from now on. The contexts are replaced when
+     * they are released, as they cannot be used again.
+     *
+     * @param reason - why the request is being stopped
+     */
+    public synchronized void cancel(String reason) {
+        if (this.reason != null) {
+            return;
+        }
+
+        this.reason = reason;
+        for (Z3ContextPool.PooledContext pooled : contexts) {
+            stop(pooled, reason);
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return reason != null;
+    }
+
+    synchronized void attach(Z3ContextPool.PooledContext pooled) {
+        contexts.add(pooled);
+
+        // The request may have been cancelled while it was waiting for the context
+        if (reason != null) {
+            stop(pooled, reason);
+        }
+    }
+
+    synchronized void detach(Z3ContextPool.PooledContext pooled) {
+        contexts.remove(pooled);
+    }
+
+    private static void stop(Z3ContextPool.PooledContext pooled, String reason) {
+        pooled.broken = true;
+        pooled.shutdown.requestShutdown(reason);
+    }
+}
@@ -0,0 +1,224 @@
+package z3;
+
+import org.sosy_lab.common.ShutdownManager;
+import org.sosy_lab.common.configuration.Configuration;
+import org.sosy_lab.common.configuration.InvalidConfigurationException;
+import org.sosy_lab.common.log.BasicLogManager;
+import org.sosy_lab.common.log.LogManager;
+import org.sosy_lab.java_smt.SolverContextFactory;
+import org.sosy_lab.java_smt.api.BooleanFormulaManager;
+import org.sosy_lab.java_smt.api.ProverEnvironment;
+import org.sosy_lab.java_smt.api.RationalFormulaManager;
+import org.sosy_lab.java_smt.api.SolverContext;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starting the native Z3 solver is the slowest part of building a small model, so this keeps a number of solver
+ * contexts warm and lends them out to each request. Each context has a single long lived prover environment, and
+ * requests add their constraints within a push/pop scope so that every request starts with an empty prover.
+ */
+public class Z3ContextPool {
+    // How often a request waiting for a context tries to create one which could not be replaced
+    private static final long RETRY_SECONDS = 1;
+
+    /**
+     * The objects required for the use of the Java-SMT library, which are created together and reused together
+     */
+    public static class PooledContext {
+        final ShutdownManager shutdown;
+        final SolverContext context;
+        final ProverEnvironment prover;
+
+        final RationalFormulaManager nums;     // For adding numeric constraints
+        final BooleanFormulaManager bools;     // For adding boolean/logical constraints
+
+        // Set if the context can no longer be trusted (e.g. it was shut down), so it is not returned to the pool. It
+        // may be set by another thread when a request times out.
+        volatile boolean broken;
+        // The cancellation of the request which has borrowed the context, if any
+        private Z3Cancellation cancellation;
+
+        private PooledContext() throws InvalidConfigurationException {
+            this(Configuration.fromCmdLineArguments(new String[0]), SolverContextFactory.Solvers.Z3);
+        }
+
+        private PooledContext(Configuration config, SolverContextFactory.Solvers solver) throws InvalidConfigurationException {
+            LogManager logger = BasicLogManager.create(config);
+            shutdown = ShutdownManager.create();
+
+            context = SolverContextFactory.createSolverContext(config, logger, shutdown.getNotifier(), solver);
+            nums = context.getFormulaManager().getRationalFormulaManager();
+            bools = context.getFormulaManager().getBooleanFormulaManager();
+            prover = context.newProverEnvironment(SolverContext.ProverOptions.GENERATE_MODELS);
+        }
+
+        void destroy() {
+            try {
+                prover.close();
+                context.close();
+                shutdown.requestShutdown("End of Use");
+            } catch (Error | Exception e) {
+                System.err.println("An error occured while closing Z3");
+                System.err.println(e);
+            }
+        }
+    }
+
+    // The configuration each context is created with, or null for the default one
+    private final Configuration config;
+    private final BlockingQueue<PooledContext> idle;
+    private final int size;
+    // The number of contexts which could not be replaced once they broke, which are created again when borrowed
+    private int missing;
+
+    /**
+     * Creates the pool, starting up every context straight away so that the first requests are also fast
+     *
+     * @param size - the number of contexts, which should be the number of requests that can be solved at once
+     */
+    public Z3ContextPool(int size) {
+        this(size, null);
+    }
+
+    /**
+     * Creates the pool, with every context created from the given configuration - e.g. a particular random seed.
+     * The pool is not created if any of its contexts cannot be, as a pool with fewer contexts than requests expect
+     * (or none at all) would leave them waiting forever.
+     *
+     * @param size - the number of contexts, which should be the number of requests that can be solved at once
+     * @param config - the configuration of each context, or null for the default one
+     * @throws IllegalStateException - if a context could not be created
+     */
+    public Z3ContextPool(int size, Configuration config) {
+        this.config = config;
+        this.size = size;
+        idle = new ArrayBlockingQueue<>(size);
+
+        for (int i = 0; i < size; i++) {
+            try {
+                idle.add(newContext());
+            } catch (InvalidConfigurationException e) {
+                close();
+                throw new IllegalStateException("Something went wrong with the configuration of Z3", e);
+            }
+        }
+    }
+
+    /**
+     * Creates a context which does not belong to any pool, for one-off uses of the solver
+     */
+    public static PooledContext create() throws InvalidConfigurationException {
+        return new PooledContext();
+    }
+
+    private PooledContext newContext() throws InvalidConfigurationException {
+        return (config != null) ? new PooledContext(config, SolverContextFactory.Solvers.Z3) : new PooledContext();
+    }
+
+    /**
+     * Takes a context from the pool, waiting for one to be returned if they are all in use
+     */
+    public PooledContext borrow() throws InterruptedException {
+        return borrow(null);
+    }
+
+    /**
+     * Takes a context from the pool for a request which may be cancelled, waiting for one to be returned if they are
+     * all in use. The context is attached to the cancellation until it is released.
+     *
+     * @param cancellation - the cancellation of the request, or null if it cannot be cancelled
+     * @throws IllegalStateException - if every context has broken and none of them could be replaced
+     */
+    public PooledContext borrow(Z3Cancellation cancellation) throws InterruptedException {
+        // A context may go missing while this is waiting, so the missing contexts are checked for again every so often
+        PooledContext pooled = idle.poll();
+        while (pooled == null) {
+            pooled = replaceMissing();
+            if (pooled == null) {
+                pooled = idle.poll(RETRY_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+
+        if (cancellation != null) {
+            pooled.cancellation = cancellation;
+            cancellation.attach(pooled);
+        }
+        return pooled;
+    }
+
+    /**
+     * Returns a context to the pool once a request is finished with it. Contexts which are broken or were shut down
+     * are replaced with a new one rather than being reused.
+     */
+    public void release(PooledContext pooled) {
+        // Once detached, cancelling the request can no longer shut the context down - so it is detached before it
+        // is checked, and before another request can borrow it
+        if (pooled.cancellation != null) {
+            pooled.cancellation.detach(pooled);
+            pooled.cancellation = null;
+        }
+
+        if (pooled.broken || pooled.shutdown.getNotifier().shouldShutdown()) {
+            pooled.destroy();
+
+            try {
+                pooled = newContext();
+            } catch (InvalidConfigurationException e) {
+                System.err.println("A replacement Z3 context could not be created");
+                System.err.println(e);
+
+                // The next request which finds the pool empty tries to create it again
+                synchronized (this) {
+                    missing++;
+                }
+                return;
+            }
+        }
+
+        idle.offer(pooled);
+    }
+
+    /**
+     * Creates a context in place of one which could not be replaced when it broke
+     *
+     * @return - the new context, or null if none are missing or it could not be created (and other contexts remain
+     * to wait for)
+     */
+    private PooledContext replaceMissing() {
+        synchronized (this) {
+            if (missing == 0) {
+                return null;
+            }
+            missing--;
+        }
+
+        try {
+            return newContext();
+        } catch (InvalidConfigurationException e) {
+            System.err.println("A replacement Z3 context could not be created");
+            System.err.println(e);
+
+            synchronized (this) {
+                missing++;
+                if (missing == size) {
+                    throw new IllegalStateException("None of the pool's Z3 contexts could be replaced", e);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Destroys the contexts which are in the pool. Contexts which are still lent out are not waited for, so this
+     * should only be called once every request is finished.
+     */
+    public void close() {
+        PooledContext pooled;
+        while ((pooled = idle.poll()) != null) {
+            pooled.destroy();
+        }
+    }
+}
@@ -4,65 +4,91 @@ import genius.core.Bid;
 import genius.core.Domain;
 import genius.core.issue.*;
 import genius.extended.Z3Domain;
-import org.sosy_lab.common.rationals.Rational;
-import org.sosy_lab.java_smt.api.Model;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class Z3Main {
+    // The server settings, which can be overridden with system properties when launching the jar
+    // e.g. java -Dz3genius.workers=8 -Dz3genius.timeout=30 -jar Z3GENIUS.jar
+    private static final int PORT = Integer.getInteger("z3genius.port", 10211);
+    private static final int BACKLOG = Integer.getInteger("z3genius.backlog", 50);
+    private static final int WORKERS = Integer.getInteger("z3genius.workers", Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE_SIZE = Integer.getInteger("z3genius.queue", 64);
+    private static final long TIMEOUT_SECONDS = Long.getLong("z3genius.timeout", 60L);
+    // The most connections served at once, and how long a client has to send its whole request
+    private static final int CONNECTIONS = Integer.getInteger("z3genius.connections", 128);
+    private static final long READ_TIMEOUT_SECONDS = Long.getLong("z3genius.read.timeout", 10L);
+    // The number of models kept in memory (0 turns the cache off), and where they are kept on disk if anywhere
+    private static final int CACHE_SIZE = Integer.getInteger("z3genius.cache.size", 32);
+    private static final String CACHE_DIR = System.getProperty("z3genius.cache.dir");
+
+    // Keeps one warm solver context for each worker, so a context is always available to a running worker
+    private static Z3Service service;
+
+    private static Z3ModelCache cache;
+
+    // Closes the connections of clients which have not sent their request in time, as a blocking read on a channel
+    // cannot time out by itself
+    private static final ScheduledExecutorService READ_DEADLINES = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "z3genius-read-deadline");
+        t.setDaemon(true);
+        return t;
+    });
+
     /**
-     * The main thread of the socket server - listens for incoming connections, parses the message and sends it
-     * to the correct util function to act upon the message headers. This is the method which is run by the jar file.
+     * The main thread of the socket server - listens for incoming connections and hands each one to its own thread,
+     * so that many agents may be connected at once. The models themselves are built on a bounded pool of worker
+     * threads. This is the method which is run by the jar file.
      *
      * @param args - no args are provided to the program
      */
     public static void main(String[] args) {
-        ServerSocket server = null;
+        ServerSocketChannel server = null;
+
+        // Connection threads spend most of their time waiting on the network or a worker, whereas the number of
+        // workers limits how many models are solved at once. Connections and requests which do not fit in their
+        // queues are rejected.
+        ExecutorService connections = new ThreadPoolExecutor(CONNECTIONS, CONNECTIONS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(BACKLOG));
+        ExecutorService workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE));
+
+        service = new Z3Service(WORKERS);
+        if (CACHE_SIZE > 0) {
+            cache = new Z3ModelCache(CACHE_SIZE, CACHE_DIR);
+        }
+
         try {
-            // Set up the server on port 102 - only allowing 1 connection at the time currently.
-            server = new ServerSocket(10211, 1);
+            // Set up the server on port 10211, queueing up to BACKLOG connections which are yet to be accepted
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(PORT), BACKLOG);
+            System.out.println("Z3GENIUS listening on port " + PORT + " with " + WORKERS + " workers");
 
             // An infinite loop which will continually accept connections when data is provided
             while (true) {
-                Socket socket = server.accept();
-                String[] returnData = {"ERR"};
-
-                // Open a reader and writer to receive and send data between the server and client socket connection
-                try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                     PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)) {
-
-                    // Split the data by the protocol separator, three semi-colons
-                    String[] data = in.readLine().split(";;;");
-
-                    // In the future more header opcodes may be used, hence the switch statement
-                    switch (data[0]) {
-                        // For building a model given a domain and bids
-                        case "BLDMDL":
-                            returnData = buildModel(data);
-                            break;
-                        default:
-                            throw new Z3ParseException();
-                    }
-
-                    // Format the message back into the readable string format
-                    String formatted = messageFormatter(returnData);
-                    System.out.println(formatted);
-
-                    // Write it back to the client
-                    writer.println(formatted);
-                } catch (Z3ParseException z) {
-                    System.err.println("The data provided was not valid");
+                SocketChannel channel = server.accept();
+                try {
+                    connections.execute(() -> handleConnection(channel, workers));
+                } catch (RejectedExecutionException r) {
+                    System.err.println("The server has too many connections, closing the new one");
+                    closeQuietly(channel);
                 }
-
-                socket.close();
             }
         } catch (IOException i) {
             System.err.println("There was an IOException...");
             System.err.println(i);
         } finally {
+            connections.shutdownNow();
+            workers.shutdownNow();
+
             // Once the loop breaks, be sure to close the server so the port may be freed for future runs
             try {
                 if (server != null) {
@@ -75,21 +101,202 @@ public class Z3Main {
     }
 
     /**
-     * This method uses the Z3Solver class in order to build a model which is able to solve the constraints provided by
-     * the client - this allows the GENIUS agent to estimate utilities
+     * Reads a single request from the client and works out which protocol it is using from the first 4 bytes - binary
+     * frames always start with the protocol's magic number, otherwise the client is using the text protocol.
+     *
+     * @param channel - the accepted client connection
+     * @param workers - the pool of threads which build the models
+     */
+    private static void handleConnection(SocketChannel channel, ExecutorService workers) {
+        // Closing the channel makes a blocked read fail, freeing the thread - the deadline is cancelled once the whole
+        // request has been read, so it never cuts off a model which is being built
+        ScheduledFuture<?> readDeadline = READ_DEADLINES.schedule(
+                () -> closeQuietly(channel), READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        try (SocketChannel ch = channel) {
+            ByteBuffer head = ByteBuffer.allocate(4);
+            while (head.hasRemaining() && ch.read(head) >= 0) ;
+            head.flip();
+
+            if (head.remaining() == 4 && head.getInt(0) == BinaryProtocol.MAGIC) {
+                handleBinary(ch, readDeadline, workers);
+            } else {
+                handleText(ch, head, readDeadline, workers);
+            }
+        } catch (AsynchronousCloseException a) {
+            System.err.println("The client did not send its request within " + READ_TIMEOUT_SECONDS + "s");
+        } catch (IOException i) {
+            System.err.println("There was an IOException while handling a client");
+            System.err.println(i);
+        } finally {
+            readDeadline.cancel(false);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("An error occurred while closing a client connection");
+        }
+    }
+
+    /**
+     * Handles a client using the binary protocol, replying with a binary frame
+     *
+     * @param channel - the client connection, which has had the magic number read from it already
+     * @param readDeadline - closes the connection if the request is not read in time, cancelled once it is read
+     * @param workers - the pool of threads which build the models
+     */
+    private static void handleBinary(SocketChannel channel, ScheduledFuture<?> readDeadline, ExecutorService workers)
+            throws IOException {
+        ByteBuffer response;
+
+        try {
+            ByteBuffer frame = BinaryProtocol.readFrameBody(channel);
+            readDeadline.cancel(false);
+
+            ModelRequest request = BinaryProtocol.decodeRequest(frame);
+            response = BinaryProtocol.encodeResult(getModel(request, workers));
+        } catch (Z3ParseException z) {
+            System.err.println("The data provided was not valid");
+            response = BinaryProtocol.encodeError();
+        }
+
+        BinaryProtocol.writeFrame(channel, response);
+    }
+
+    /**
+     * Handles a client using the text protocol, parsing the message and sending it to the correct util function to
+     * act upon the message headers.
+     *
+     * @param channel - the client connection
+     * @param head - the bytes which have already been read from the connection
+     * @param readDeadline - closes the connection if the request is not read in time, cancelled once it is read
+     * @param workers - the pool of threads which build the models
+     */
+    private static void handleText(SocketChannel channel, ByteBuffer head, ScheduledFuture<?> readDeadline,
+                                   ExecutorService workers) throws IOException {
+        String[] returnData = {"ERR"};
+
+        // Open a reader and writer to receive and send data between the server and client socket connection. The
+        // bytes used to detect the protocol are put back in front of the rest of the message.
+        InputStream stream = new SequenceInputStream(
+                new ByteArrayInputStream(head.array(), 0, head.limit()),
+                Channels.newInputStream(channel));
+        BufferedReader in = new BufferedReader(new InputStreamReader(stream));
+        PrintWriter writer = new PrintWriter(Channels.newOutputStream(channel), true);
+
+        try {
+            String line = in.readLine();
+            readDeadline.cancel(false);
+
+            if (line == null) {
+                throw new Z3ParseException();
+            }
+
+            // Split the data by the protocol separator, three semi-colons
+            String[] data = line.split(";;;");
+
+            // In the future more header opcodes may be used, hence the switch statement
+            switch (data[0]) {
+                // For building a model given a domain and bids
+                case "BLDMDL":
+                    ModelRequest request = parseTextRequest(data);
+                    ModelResult result = getModel(request, workers);
+
+                    if (result != null) {
+                        returnData = result.toMessage();
+                    }
+                    break;
+                default:
+                    throw new Z3ParseException();
+            }
+        } catch (Z3ParseException | ArrayIndexOutOfBoundsException | NumberFormatException z) {
+            System.err.println("The data provided was not valid");
+        }
+
+        // Format the message back into the readable string format
+        String formatted = messageFormatter(returnData);
+        System.out.println(formatted);
+
+        // Write it back to the client
+        writer.println(formatted);
+    }
+
+    /**
+     * Fetches the model for a request from the cache, or builds it on the worker pool if it has not been seen before
+     *
+     * @param request - the issues, bids and bounds sent to the server by the client
+     * @param workers - the pool of threads which build the models
+     * @return - the estimated model, or null if no model could be built
+     */
+    private static ModelResult getModel(ModelRequest request, ExecutorService workers) {
+        if (cache == null) {
+            return buildOnWorker(request, workers);
+        }
+
+        String key = Z3ModelCache.key(request);
+        ModelResult result = cache.get(key, request.getIssues().size());
+
+        if (result == null) {
+            result = buildOnWorker(request, workers);
+            if (result != null) {
+                cache.put(key, result);
+            }
+        }
+
+        if (Z3Service.VERBOSE) {
+            System.out.println(cache);
+        }
+        return result;
+    }
+
+    /**
+     * Builds the model on the worker pool, waiting for it to finish for no longer than the timeout
+     *
+     * @param request - the issues, bids and bounds sent to the server by the client
+     * @param workers - the pool of threads which build the models
+     * @return - the estimated model, or null if it failed, timed out or could not be run
+     */
+    private static ModelResult buildOnWorker(ModelRequest request, ExecutorService workers) {
+        Future<ModelResult> task = null;
+        // Stops only this request's solvers on a timeout, even if its worker has already moved on to another request
+        Z3Cancellation cancellation = new Z3Cancellation();
+
+        try {
+            task = workers.submit(() -> service.buildModel(request, cancellation));
+            return task.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            System.err.println("An error occurred while building the model");
+            System.err.println(e.getCause());
+        } catch (TimeoutException t) {
+            System.err.println("The model took longer than " + TIMEOUT_SECONDS + "s to build");
+
+            // Interrupting the worker does not stop the native solver, so shut its contexts down as well
+            task.cancel(true);
+            cancellation.cancel("The request timed out");
+        } catch (RejectedExecutionException r) {
+            System.err.println("The server is too busy to build the model");
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            cancellation.cancel("The server is shutting down");
+            Thread.currentThread().interrupt();
+        }
+
+        return null;
+    }
+
+    /**
+     * Parses a text protocol BLDMDL message into the issues, bids and bounds which are used to build the model
      *
      * @param data - the data which was sent to the server by the client - hopefully consisting of protocol compliant opcodes and data
-     * @return - a list of opcodes and data to be formatted before sending back to the client
+     * @return - the parsed request
      * @throws Z3ParseException - for the situation where the data provided to the server may be incorrectly formatted
      */
-    private static String[] buildModel(String[] data) throws Z3ParseException {
-        HashSet<String> possibleCommands = new HashSet<>(Arrays.asList("CON", "DIS", "BID", "BND"));
-        Z3Solver z3;
-
+    private static ModelRequest parseTextRequest(String[] data) throws Z3ParseException {
         double lowBound = 0.0, highBound = 1.0;
-
-        // This counter is used later for the parsing of results from the model
-        int modelAmount = 0;
+        int maxBids = 0;
 
         // Use the GENIUS classes to parse messages from the client into, easier than creating new methods
         final List<Issue> issues = new ArrayList<>();
@@ -104,8 +311,6 @@ public class Z3Main {
             switch (currentCommand) {
                 case "CON":
                     System.out.println("----\nContinuous Issue");
-                    // Each continuous issue creates 4 values in the model (min util, max util, weight, and slope)
-                    modelAmount += 4;
 
                     Issue intIssue = new IssueInteger(String.valueOf(issues.size()),
                             issues.size(),
@@ -117,15 +322,11 @@ public class Z3Main {
                 case "DIS":
                     List<String> values = new ArrayList<>();
                     System.out.println("----\nDiscrete Issue");
-                    // Each discrete issue creates (no. of values) + 1 model values which need to be fetched
-                    modelAmount++;
 
                     // Loop through each provided value and add it to the discrete issue value list
                     while (!data[i + 1].equals("EDIS")) {
                         values.add(data[++i]);
                         System.out.println(data[i]);
-
-                        modelAmount++;
                     }
 
                     issues.add(new IssueDiscrete(
@@ -140,8 +341,6 @@ public class Z3Main {
                     // so cannot be instantiated here
                     System.out.println("----\nBid");
 
-                    modelAmount++;  // Each bid creates one model value, it's utility
-
                     for (Issue iss : issues) {
                         // Parse the bids into a map of each value to the issue number ID
                         if (iss.getType() == ISSUETYPE.DISCRETE) {
@@ -158,6 +357,10 @@ public class Z3Main {
                     lowBound = Double.parseDouble(data[++i]);
                     highBound = Double.parseDouble(data[++i]);
                     break;
+                case "CMP":
+                    // The client has asked for the ranking to be compressed to at most this many bids
+                    maxBids = Integer.parseInt(data[++i]);
+                    break;
                 default:
                     System.err.println("The provided command is not valid: " + currentCommand);
                     throw new Z3ParseException();
@@ -170,71 +373,7 @@ public class Z3Main {
             }
         }
 
-        // Initialise the Z3Solver class, passing in the parsed issues and bid values
-        z3 = new Z3Solver(
-                bids,
-                issues
-        );
-
-        // Get the model values from the constraints applied in the estimate method
-        List<Model.ValueAssignment> model = z3.estimate(bids, issues, lowBound, highBound);
-
-        List<String> returnData = new ArrayList<>();
-
-        // Parse estimator results
-        if (model != null && model.size() > 0) {
-            returnData.add("MDL");
-
-            Map<String, Double> mappedValues = new HashMap<>();
-            List<String> weightings = new ArrayList<>();
-
-            // This code only finds the useful values generated by the model
-            // Looping through all the model values caused a fatal error in the JRE
-            // Hence, the modelAmount variable is used to limit the iterations
-            for (int i = 0; i < modelAmount; i++) {
-                Model.ValueAssignment va = model.get(i);
-                System.out.println(va.getName() + " - " + va.getValue());
-
-                mappedValues.put(va.getName(), ((Rational) va.getValue()).doubleValue());
-            }
-
-            // Loop through the ID of each issue in the issue list
-            for (int issueCount = 0; issueCount < issues.size(); issueCount++) {
-                Issue issue = issues.get(issueCount);
-
-                // Add the estimated weighting value to the weightings array
-                weightings.add(mappedValues.get("weight-" + issueCount).toString());
-
-                // If the current issue is a discrete type
-                if (issue.getType() == ISSUETYPE.DISCRETE) {
-                    // Indicate that this is the start of a discrete issue in the protocol format
-                    returnData.add("DIS");
-
-                    // For each discrete value, add the estimated utility/preference of that value to the return message
-                    for (int valueCount = 0; valueCount < ((IssueDiscrete) issue).getNumberOfValues(); valueCount++) {
-                        returnData.add(mappedValues.get("issue-" + issueCount + "-" + valueCount).toString());
-                    }
-                    returnData.add("EDIS");
-                } else if (issue.getType() == ISSUETYPE.INTEGER) {
-                    // Indicate that this is the start of a continuous issue in the protocol format
-                    returnData.add("CON");      // Add the required values for the GENIUS utility space (the min and max utilities)
-                    returnData.add(mappedValues.get("issue-" + issueCount + "-minutil").toString());
-                    returnData.add(mappedValues.get("issue-" + issueCount + "-maxutil").toString());
-                    returnData.add("ECON");
-                    // Close the continuous issue
-                }
-            }
-
-            // Finally, add the weights of each issue to the message
-            returnData.add("WHT");
-            returnData.addAll(weightings);
-            returnData.add("EWHT");
-        } else {
-            // If there is a problem with the generated model, just send the protocol's error operation
-            returnData.add("ERR");
-        }
-
-        return returnData.toArray(new String[0]);       // Converts the arraylist to a string array
+        return new ModelRequest(issues, bids, lowBound, highBound, maxBids);
     }
 
     /**
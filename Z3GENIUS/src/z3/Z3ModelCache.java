@@ -0,0 +1,161 @@
+package z3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In tournaments the same domain and bid ranking is sent to the server many times, once for each agent and session.
+ * This cache stores the models that have already been built, keyed by a hash of the request, so that they do not need
+ * solving again. The least recently used models are evicted once the cache is full, and the models can optionally
+ * be stored on disk so that they survive the server restarting.
+ */
+public class Z3ModelCache {
+    private final Map<String, ModelResult> models;
+    private final Path directory;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity - the number of models kept in memory
+     * @param directory - the directory models are stored in on disk, or null to only keep them in memory
+     */
+    public Z3ModelCache(final int capacity, String directory) {
+        // An access ordered linked hash map keeps the least recently used model first, ready for eviction
+        this.models = new LinkedHashMap<String, ModelResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ModelResult> eldest) {
+                return size() > capacity;
+            }
+        };
+
+        this.directory = (directory != null) ? Paths.get(directory) : null;
+        if (this.directory != null) {
+            try {
+                Files.createDirectories(this.directory);
+            } catch (IOException e) {
+                System.err.println("The model cache directory could not be created: " + directory);
+            }
+        }
+    }
+
+    /**
+     * Builds the cache key for a request. The request is written in the canonical binary encoding - so the same
+     * domain and ranking has the same key whichever protocol it was sent with - and then hashed.
+     *
+     * @param request - the request to build a model for
+     * @return - the SHA-256 hash of the request, as a hex string
+     */
+    public static String key(ModelRequest request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer payload = BinaryProtocol.encodeRequest(request);
+            digest.update(payload);
+
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param key - the key of the request
+     * @param issueCount - the number of issues in the request's domain, used when reading a model from disk
+     * @return - the cached model, or null if the request has not been seen before
+     */
+    public ModelResult get(String key, int issueCount) {
+        ModelResult result;
+        synchronized (models) {
+            result = models.get(key);
+        }
+
+        if (result == null) {
+            result = load(key, issueCount);
+            if (result != null) {
+                synchronized (models) {
+                    models.put(key, result);
+                }
+            }
+        }
+
+        (result != null ? hits : misses).incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Adds a newly built model to the cache, and to the disk if a directory is being used
+     */
+    public void put(String key, ModelResult result) {
+        synchronized (models) {
+            models.put(key, result);
+        }
+        save(key, result);
+    }
+
+    private ModelResult load(String key, int issueCount) {
+        if (directory == null) {
+            return null;
+        }
+
+        Path file = directory.resolve(key + ".mdl");
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try {
+            String message = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+            return ModelResult.fromMessage(message.split(";;;"), issueCount);
+        } catch (IOException | Z3ParseException e) {
+            System.err.println("The cached model could not be read: " + file);
+            return null;
+        }
+    }
+
+    private void save(String key, ModelResult result) {
+        if (directory == null) {
+            return;
+        }
+
+        // The MDL response is written in the text protocol format, through a temporary file so that a partially
+        // written model is never read
+        try {
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temp, String.join(";;;", result.toMessage()).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, directory.resolve(key + ".mdl"), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("The model could not be saved to the cache directory");
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        int size;
+        synchronized (models) {
+            size = models.size();
+        }
+        return "Model cache: " + size + " models, " + hits.get() + " hits, " + misses.get() + " misses";
+    }
+}
@@ -0,0 +1,238 @@
+package z3;
+
+import genius.core.Bid;
+import genius.core.issue.*;
+import org.sosy_lab.common.configuration.InvalidConfigurationException;
+import org.sosy_lab.common.rationals.Rational;
+import org.sosy_lab.java_smt.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates a model with Z3's optimiser rather than taking the first satisfying model. The ordering of the ranked
+ * bids is softened - each neighbouring pair may be out of order by a slack variable, and the total slack is
+ * minimised - so that noisy rankings, which make the strict ordering unsatisfiable, still produce a model.
+ *
+ * To keep the problem linear, each value's weighted utility (its weight multiplied by its utility) is solved for
+ * directly. The weight of an issue is then its largest weighted utility, and the utilities are scaled by it.
+ *
+ * The solver is shut down if it runs longer than the time budget, in which case the LinearEstimator is used instead.
+ */
+public class Z3Optimiser implements Estimator {
+    // Shuts down solvers which have run out of time
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "z3genius-optimiser-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Z3ContextPool pool;
+    private final long budgetMs;
+    private final Z3Cancellation cancellation;
+
+    /**
+     * @param pool - the pool to borrow a warm solver context from, or null to create a new one
+     * @param budgetMs - the longest the solver may run for, in milliseconds
+     */
+    public Z3Optimiser(Z3ContextPool pool, long budgetMs) {
+        this(pool, budgetMs, null);
+    }
+
+    /**
+     * @param pool - the pool to borrow a warm solver context from, or null to create a new one
+     * @param budgetMs - the longest the solver may run for, in milliseconds
+     * @param cancellation - stops the solver if the request is cancelled, or null if it cannot be
+     */
+    public Z3Optimiser(Z3ContextPool pool, long budgetMs, Z3Cancellation cancellation) {
+        this.pool = pool;
+        this.budgetMs = budgetMs;
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * @param request - the issues, ranked bids (lowest first) and bounds to estimate from
+     * @return - the model with the fewest ordering violations, or the linear estimate if the solver fails or runs
+     * out of time
+     */
+    @Override
+    public ModelResult estimate(ModelRequest request) {
+        Z3ContextPool.PooledContext pooled;
+        try {
+            pooled = (pool != null) ? pool.borrow(cancellation) : Z3ContextPool.create();
+        } catch (InvalidConfigurationException e) {
+            System.out.println("Something went wrong with the configuration of Z3");
+            System.err.println(e);
+            return new LinearEstimator().estimate(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        // Shutting down the context is the only way to stop the solver part way through, after which the context
+        // cannot be used again
+        ScheduledFuture<?> timer = TIMER.schedule(
+                () -> pooled.shutdown.requestShutdown("The time budget was exceeded"), budgetMs, TimeUnit.MILLISECONDS);
+        ModelResult result = null;
+
+        try {
+            result = optimise(pooled, request);
+        } catch (InterruptedException | SolverException | RuntimeException e) {
+            System.err.println("The optimiser could not build a model");
+            System.err.println(e);
+        } finally {
+            timer.cancel(false);
+
+            if (pooled.shutdown.getNotifier().shouldShutdown()) {
+                System.err.println("The optimiser took longer than " + budgetMs + "ms");
+                pooled.broken = true;
+            }
+
+            if (pool != null) {
+                pool.release(pooled);
+            } else {
+                pooled.destroy();
+            }
+        }
+
+        return (result != null) ? result : new LinearEstimator().estimate(request);
+    }
+
+    private static ModelResult optimise(Z3ContextPool.PooledContext pooled, ModelRequest request)
+            throws InterruptedException, SolverException {
+        RationalFormulaManager nums = pooled.nums;
+        NumeralFormula zero = nums.makeNumber(0.0);
+        List<Issue> issues = request.getIssues();
+        List<Bid> bids = request.getBids();
+
+        // Indexed by [issue][value index] for discrete issues, and [issue][0 = lower bound, 1 = upper bound] for
+        // integer issues
+        NumeralFormula.RationalFormula[][] weighted = new NumeralFormula.RationalFormula[issues.size()][];
+
+        try (OptimizationProverEnvironment opt =
+                     pooled.context.newOptimizationProverEnvironment(SolverContext.ProverOptions.GENERATE_MODELS)) {
+            for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+                Issue issue = issues.get(issueIndex);
+                int count = (issue.getType() == ISSUETYPE.DISCRETE) ? ((IssueDiscrete) issue).getNumberOfValues() : 2;
+
+                weighted[issueIndex] = new NumeralFormula.RationalFormula[count];
+                for (int i = 0; i < count; i++) {
+                    weighted[issueIndex][i] = nums.makeVariable("opt-issue-" + issueIndex + "-" + i);
+                    opt.addConstraint(nums.greaterOrEquals(weighted[issueIndex][i], zero));
+                }
+            }
+
+            List<NumeralFormula> slacks = new ArrayList<>();
+            NumeralFormula previous = null;
+
+            for (int bidIndex = 0; bidIndex < bids.size(); bidIndex++) {
+                NumeralFormula utility = bidUtility(nums, issues, weighted, bids.get(bidIndex));
+
+                if (bidIndex == 0) {
+                    opt.addConstraint(nums.equal(utility, nums.makeNumber(request.getLowBound())));
+                }
+                if (bidIndex == bids.size() - 1) {
+                    opt.addConstraint(nums.equal(utility, nums.makeNumber(request.getHighBound())));
+                }
+
+                if (previous != null) {
+                    NumeralFormula.RationalFormula slack = nums.makeVariable("opt-slack-" + bidIndex);
+                    opt.addConstraint(nums.greaterOrEquals(slack, zero));
+                    opt.addConstraint(nums.lessOrEquals(previous, nums.add(utility, slack)));
+                    slacks.add(slack);
+                }
+
+                previous = utility;
+            }
+
+            if (!slacks.isEmpty()) {
+                opt.minimize(nums.sum(slacks));
+            }
+
+            if (opt.check() != OptimizationProverEnvironment.OptStatus.OPT) {
+                return null;
+            }
+
+            try (Model model = opt.getModel()) {
+                return toResult(model, issues, weighted);
+            }
+        }
+    }
+
+    /**
+     * The utility of a bid is the sum of the weighted utility of each of its values - integer issues interpolate
+     * between the weighted utilities at their bounds, which keeps the sum linear as the position is a constant
+     */
+    private static NumeralFormula bidUtility(RationalFormulaManager nums, List<Issue> issues,
+                                             NumeralFormula.RationalFormula[][] weighted, Bid bid) {
+        List<NumeralFormula> utilSum = new ArrayList<>();
+
+        for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+            Issue issue = issues.get(issueIndex);
+
+            if (issue.getType() == ISSUETYPE.DISCRETE) {
+                int valueIndex = ((IssueDiscrete) issue).getValueIndex((ValueDiscrete) bid.getValue(issue));
+                utilSum.add(weighted[issueIndex][valueIndex]);
+            } else if (issue.getType() == ISSUETYPE.INTEGER) {
+                IssueInteger intIssue = (IssueInteger) issue;
+                int width = intIssue.getUpperBound() - intIssue.getLowerBound();
+                double position = (width == 0) ? 0.0
+                        : (((ValueInteger) bid.getValue(issue)).getValue() - intIssue.getLowerBound()) / (1.0 * width);
+
+                utilSum.add(nums.add(
+                        nums.multiply(weighted[issueIndex][0], nums.makeNumber(1 - position)),
+                        nums.multiply(weighted[issueIndex][1], nums.makeNumber(position))
+                ));
+            }
+        }
+
+        return nums.sum(utilSum);
+    }
+
+    /**
+     * Splits the weighted utilities back into the weight of each issue and the utility of each value
+     */
+    private static ModelResult toResult(Model model, List<Issue> issues, NumeralFormula.RationalFormula[][] weighted) {
+        ModelResult result = new ModelResult(issues.size());
+        double[][] values = new double[issues.size()][];
+        double[] maxima = new double[issues.size()];
+        double maxSum = 0.0;
+
+        for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+            values[issueIndex] = new double[weighted[issueIndex].length];
+
+            for (int i = 0; i < values[issueIndex].length; i++) {
+                Rational value = model.evaluate(weighted[issueIndex][i]);
+                values[issueIndex][i] = (value != null) ? value.doubleValue() : 0.0;
+                maxima[issueIndex] = Math.max(maxima[issueIndex], values[issueIndex][i]);
+            }
+
+            maxSum += maxima[issueIndex];
+        }
+
+        for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+            double max = maxima[issueIndex];
+            double[] utilities = new double[values[issueIndex].length];
+
+            for (int i = 0; i < utilities.length; i++) {
+                utilities[i] = (max > 0) ? values[issueIndex][i] / max : 1.0;
+            }
+
+            if (issues.get(issueIndex).getType() == ISSUETYPE.DISCRETE) {
+                for (int i = 0; i < utilities.length; i++) {
+                    utilities[i] = ModelResult.MIN_VALUE_UTILITY + (1 - ModelResult.MIN_VALUE_UTILITY) * utilities[i];
+                }
+                result.setDiscreteUtilities(issueIndex, utilities);
+            } else {
+                result.setIntegerUtilities(issueIndex, utilities[0], utilities[1]);
+            }
+            result.setWeight(issueIndex, (maxSum > 0) ? max / maxSum : 1.0 / issues.size());
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,140 @@
+package z3;
+
+import org.sosy_lab.common.configuration.Configuration;
+import org.sosy_lab.common.configuration.InvalidConfigurationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * The time a solver takes on a hard ranking varies a lot with its random seed, so this runs the same estimation on
+ * several differently seeded Z3 solvers at once and uses whichever finds a model first. The others are stopped
+ * through their shutdown managers as soon as a model is found.
+ *
+ * Each seed has its own pool of warm contexts, so a request only pays for starting the native solver when a stopped
+ * context is replaced.
+ */
+public class Z3Portfolio {
+    // Each member of the portfolio runs on its own thread, which are daemons so a stuck solver cannot keep the
+    // process alive
+    private static final ExecutorService RUNNERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "z3genius-portfolio");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * One solver racing for a request. A member is only stopped while it is still running, as once it has finished
+     * its context is returned to the pool and may already be in use by another request.
+     */
+    private static class Run {
+        private final Z3ContextPool.PooledContext context;
+        private boolean finished;
+
+        Run(Z3ContextPool.PooledContext context) {
+            this.context = context;
+        }
+
+        synchronized void finish() {
+            finished = true;
+        }
+
+        synchronized void stop(String reason) {
+            if (!finished) {
+                context.shutdown.requestShutdown(reason);
+            }
+        }
+    }
+
+    // One pool of warm contexts for each random seed
+    private final Z3ContextPool[] pools;
+
+    /**
+     * @param seeds - the number of Z3 solvers to race, each with a different random seed
+     * @param size - the number of contexts kept warm for each seed, i.e. how many requests can race at once
+     */
+    public Z3Portfolio(int seeds, int size) {
+        pools = new Z3ContextPool[seeds];
+
+        for (int seed = 0; seed < seeds; seed++) {
+            Configuration config;
+            try {
+                config = Configuration.builder()
+                        .setOption("solver.randomSeed", Long.toString(seed))
+                        .build();
+            } catch (InvalidConfigurationException e) {
+                System.out.println("Something went wrong with the configuration of Z3");
+                System.err.println(e);
+                config = null;
+            }
+            pools[seed] = new Z3ContextPool(size, config);
+        }
+    }
+
+    /**
+     * @param request - the issues, bids and bounds to build the model from
+     * @param cancellation - stops every member if the request is cancelled, or null if it cannot be
+     * @return - the first model found by any member of the portfolio, or null if none of them found one
+     */
+    public ModelResult buildModel(ModelRequest request, Z3Cancellation cancellation) {
+        CompletionService<ModelResult> race = new ExecutorCompletionService<>(RUNNERS);
+        List<Run> runs = new ArrayList<>();
+        ModelResult result = null;
+
+        try {
+            for (int seed = 0; seed < pools.length; seed++) {
+                Z3ContextPool pool = pools[seed];
+                Run run = new Run(pool.borrow(cancellation));
+                int member = seed;
+
+                runs.add(run);
+                race.submit(() -> solve(pool, run, request, member));
+            }
+
+            for (int i = 0; i < runs.size() && result == null; i++) {
+                try {
+                    result = race.take().get();
+                } catch (ExecutionException e) {
+                    System.err.println("A solver in the portfolio failed");
+                    System.err.println(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Stop the solvers which are still running, their contexts are replaced once they have stopped
+            for (Run run : runs) {
+                run.stop("Another solver in the portfolio finished first");
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Destroys the warm contexts of every seed, once the portfolio is no longer needed
+     */
+    public void close() {
+        for (Z3ContextPool pool : pools) {
+            pool.close();
+        }
+    }
+
+    private static ModelResult solve(Z3ContextPool pool, Run run, ModelRequest request, int seed) {
+        Z3Solver z3 = new Z3Solver(request.getBids(), request.getIssues(), pool, run.context);
+
+        try {
+            ModelResult result = z3.estimate(
+                    request.getBids(), request.getIssues(), request.getLowBound(), request.getHighBound());
+
+            if (result != null && Z3Service.VERBOSE) {
+                System.out.println("The portfolio's model was found by seed " + seed);
+            }
+            return result;
+        } finally {
+            run.finish();
+            z3.close();
+        }
+    }
+}
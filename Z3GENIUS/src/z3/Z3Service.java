@@ -0,0 +1,145 @@
+package z3;
+
+import genius.core.Bid;
+import genius.core.issue.Issue;
+
+import java.util.List;
+
+/**
+ * Builds models with the Z3 solver inside the calling process. The socket server uses this for each request it
+ * receives, and agents can use the shared instance directly to skip the connection and serialisation entirely - at
+ * the cost of a crash in the native solver taking the agent down with it.
+ */
+public class Z3Service implements Estimator {
+    // The number of warm contexts kept by the shared instance, i.e. how many agents in the process can solve at once
+    private static final int SHARED_CONTEXTS = Integer.getInteger("z3genius.embedded.contexts", 1);
+    // Either "sat" to use the first model which satisfies the ranking, "optimise" to minimise how far the model is
+    // from the ranking within the time budget, or "portfolio" to race several solvers for the first model
+    private static final String SOLVE_MODE = System.getProperty("z3genius.solve", "sat");
+    private static final long OPTIMISE_BUDGET = Long.getLong("z3genius.optimise.budget.ms", 10000L);
+    // The number of Z3 random seeds raced in portfolio mode
+    private static final int PORTFOLIO_SEEDS = Integer.getInteger("z3genius.portfolio.seeds", 4);
+    // Prints what the solver is doing for each request (e.g. the cache and compression statistics), which is off by
+    // default to keep the console of a busy server readable
+    static final boolean VERBOSE = Boolean.getBoolean("z3genius.verbose");
+
+    private final int size;
+    private final Z3ContextPool contexts;
+    // Only created the first time the portfolio mode is used, as it keeps its own warm contexts for every seed
+    private volatile Z3Portfolio portfolio;
+
+    /**
+     * The shared instance is only created the first time it is used, so processes which never build a model in
+     * process never load the native solver
+     */
+    private static class Shared {
+        static final Z3Service INSTANCE = new Z3Service(SHARED_CONTEXTS);
+    }
+
+    /**
+     * @param size - the number of solver contexts to keep warm
+     */
+    public Z3Service(int size) {
+        this.size = size;
+        this.contexts = new Z3ContextPool(size);
+    }
+
+    /**
+     * @return - the service shared by every agent in this process
+     */
+    public static Z3Service getInstance() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Builds a model which is able to solve the constraints of the request - this allows the GENIUS agent to estimate
+     * utilities. The bids which add no constraints are always removed from the ranking first, and if the client asked
+     * for compression it is sampled down to their limit and the statistics are kept with the model.
+     *
+     * @param request - the issues, bids and bounds to build the model from
+     * @return - the estimated model, or null if no model could be found
+     */
+    public ModelResult buildModel(ModelRequest request) {
+        return buildModel(request, null);
+    }
+
+    /**
+     * Builds a model for a request which may be cancelled from another thread, e.g. once it has run out of time -
+     * cancelling shuts down the solver contexts the request is using
+     *
+     * @param request - the issues, bids and bounds to build the model from
+     * @param cancellation - stops the request's solvers when cancelled, or null if it cannot be
+     * @return - the estimated model, or null if no model could be found or the request was cancelled
+     */
+    public ModelResult buildModel(ModelRequest request, Z3Cancellation cancellation) {
+        RankingCompressor compressor = new RankingCompressor(request.getMaxBids());
+        ModelResult result = solve(compressor.compress(request), cancellation);
+        if (VERBOSE) {
+            System.out.println(compressor.getStats());
+        }
+
+        if (result != null && request.getMaxBids() > 0) {
+            result.setStats(compressor.getStats());
+        }
+        return result;
+    }
+
+    /**
+     * Destroys the service's solver contexts, once every request to it has finished. The shared instance lives for as
+     * long as the process, so it is never closed.
+     */
+    public void close() {
+        contexts.close();
+
+        if (portfolio != null) {
+            portfolio.close();
+        }
+    }
+
+    @Override
+    public ModelResult estimate(ModelRequest request) {
+        return buildModel(request);
+    }
+
+    /**
+     * This method uses the Z3Solver class (or the Z3Optimiser or Z3Portfolio, depending on the mode) in order to
+     * build the model
+     */
+    private ModelResult solve(ModelRequest request, Z3Cancellation cancellation) {
+        if (SOLVE_MODE.equals("optimise")) {
+            return new Z3Optimiser(contexts, OPTIMISE_BUDGET, cancellation).estimate(request);
+        } else if (SOLVE_MODE.equals("portfolio")) {
+            return getPortfolio().buildModel(request, cancellation);
+        }
+
+        List<Issue> issues = request.getIssues();
+        List<Bid> bids = request.getBids();
+
+        // Initialise the Z3Solver class, passing in the issues and bid values
+        Z3Solver z3 = new Z3Solver(
+                bids,
+                issues,
+                contexts,
+                cancellation
+        );
+
+        try {
+            // Get the model values from the constraints applied in the estimate method
+            return z3.estimate(bids, issues, request.getLowBound(), request.getHighBound());
+        } finally {
+            // Returns the solver context to the pool once the model has been read
+            z3.close();
+        }
+    }
+
+    private Z3Portfolio getPortfolio() {
+        if (portfolio == null) {
+            synchronized (this) {
+                if (portfolio == null) {
+                    portfolio = new Z3Portfolio(PORTFOLIO_SEEDS, size);
+                }
+            }
+        }
+        return portfolio;
+    }
+}
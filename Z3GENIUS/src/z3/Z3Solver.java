@@ -2,43 +2,49 @@ package z3;
 
 import genius.core.Bid;
 import genius.core.issue.*;
-import org.sosy_lab.common.ShutdownManager;
-import org.sosy_lab.common.configuration.Configuration;
 import org.sosy_lab.common.configuration.InvalidConfigurationException;
-import org.sosy_lab.common.log.BasicLogManager;
-import org.sosy_lab.common.log.LogManager;
-import org.sosy_lab.java_smt.SolverContextFactory;
 import org.sosy_lab.java_smt.api.*;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Builds a model of the user's preferences which satisfies the order of their bid ranking.
+ *
+ * To keep every constraint linear, the variables of each value are its weighted utility (the issue's weight
+ * multiplied by the value's utility) rather than the utility itself, so a bid's utility is a plain sum of them. An
+ * issue's weighted utilities may not be above its weight, and the best value of a discrete issue is equal to it, so
+ * the utilities read back by dividing by the weight are between 0 and 1 with the best value at 1.
+ */
 public class Z3Solver {
     private List<BooleanFormula> constraints;
 
     private NumeralFormula[] weightings;
     private NumeralFormula.RationalFormula[] bidUtilities;
 
+    // The weighted utility of each discrete value, indexed by [issue][value index]
     private NumeralFormula.RationalFormula[][] discreteIssueValues;
 
-    private NumeralFormula.RationalFormula[][] intIssueBounds;
+    // Integer issues are encoded by the weighted utility at each bound, indexed by [issue][0 = lower, 1 = upper], with
+    // the utility of a value interpolated between them
     private NumeralFormula.RationalFormula[][] intIssueUtilities;
-    private NumeralFormula.RationalFormula[] intIssueSlopes;
 
-    private LogManager logger;
-    private ShutdownManager shutdown;
+    // The context is borrowed from the pool when one is provided, otherwise it belongs to this solver alone
+    private Z3ContextPool pool;
+    private Z3ContextPool.PooledContext pooled;
+    // The number of scopes pushed onto the prover, which are all popped before the context is reused
+    private int pushedScopes;
 
     private RationalFormulaManager nums;
     private BooleanFormulaManager bools;
-    private SolverContext context;
     private ProverEnvironment prover;
 
     private NumeralFormula ONE;
     private NumeralFormula ZERO;
 
     /**
-     * Initialises all the required class variables for the Z3 solver to generate an appropriate model
+     * Initialises all the required class variables for the Z3 solver to generate an appropriate model, using a new
+     * solver context which is destroyed when the solver is closed
      *
      * @param bids   - an array list of bids - only used to get the required sizes for the internal arrays
      * @param issues - an array list of issues - " "
@@ -47,24 +53,87 @@ public class Z3Solver {
             List<Bid> bids,
             List<Issue> issues
     ) {
+        this(bids, issues, (Z3ContextPool) null);
+    }
+
+    /**
+     * Initialises all the required class variables for the Z3 solver to generate an appropriate model
+     *
+     * @param bids   - an array list of bids - only used to get the required sizes for the internal arrays
+     * @param issues - an array list of issues - " "
+     * @param pool   - the pool to borrow a warm solver context from, or null to create a new one
+     */
+    public Z3Solver(
+            List<Bid> bids,
+            List<Issue> issues,
+            Z3ContextPool pool
+    ) {
+        this(bids, issues, pool, (Z3Cancellation) null);
+    }
+
+    /**
+     * Initialises all the required class variables for the Z3 solver to generate an appropriate model, for a request
+     * which may be cancelled from another thread
+     *
+     * @param bids         - an array list of bids - only used to get the required sizes for the internal arrays
+     * @param issues       - an array list of issues - " "
+     * @param pool         - the pool to borrow a warm solver context from, or null to create a new one
+     * @param cancellation - stops the solver if the request is cancelled, or null if it cannot be
+     */
+    public Z3Solver(
+            List<Bid> bids,
+            List<Issue> issues,
+            Z3ContextPool pool,
+            Z3Cancellation cancellation
+    ) {
+        this.pool = pool;
+
         try {
-            // These are objects required for the use of the Java-SMT library
-            Configuration config = Configuration.fromCmdLineArguments(new String[0]);
-            logger = BasicLogManager.create(config);
-            shutdown = ShutdownManager.create();
-
-            // These allow constraints to be applied to the model
-            context = SolverContextFactory.createSolverContext(config, logger, shutdown.getNotifier(), SolverContextFactory.Solvers.Z3);
-            nums = context.getFormulaManager().getRationalFormulaManager(); // For adding numeric constraints
-            bools = context.getFormulaManager().getBooleanFormulaManager(); // For adding boolean/logical constraints
-
-            ONE = nums.makeNumber(1.0);
-            ZERO = nums.makeNumber(0.0);
+            useContext((pool != null) ? pool.borrow(cancellation) : Z3ContextPool.create());
         } catch (InvalidConfigurationException e) {
             System.out.println("Something went wrong with the configuration of Z3");
             System.err.println(e);
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted while waiting for a Z3 context");
+            Thread.currentThread().interrupt();
         }
 
+        allocate(bids, issues);
+    }
+
+    /**
+     * Initialises all the required class variables for the solver to generate an appropriate model, using a context
+     * which has already been borrowed from the pool - it is returned to the pool when the solver is closed
+     *
+     * @param bids    - an array list of bids - only used to get the required sizes for the internal arrays
+     * @param issues  - an array list of issues - " "
+     * @param pool    - the pool the context was borrowed from
+     * @param context - the borrowed context to solve with
+     */
+    Z3Solver(
+            List<Bid> bids,
+            List<Issue> issues,
+            Z3ContextPool pool,
+            Z3ContextPool.PooledContext context
+    ) {
+        this.pool = pool;
+        useContext(context);
+        allocate(bids, issues);
+    }
+
+    private void useContext(Z3ContextPool.PooledContext context) {
+        pooled = context;
+
+        // These allow constraints to be applied to the model
+        nums = pooled.nums; // For adding numeric constraints
+        bools = pooled.bools; // For adding boolean/logical constraints
+        prover = pooled.prover;
+
+        ONE = nums.makeNumber(1.0);
+        ZERO = nums.makeNumber(0.0);
+    }
+
+    private void allocate(List<Bid> bids, List<Issue> issues) {
         // Stores the rational formula objects (an encapsulation of numeric values for JavaSMT) used for generating
         // the various different values required for GENIUS
         this.weightings = new NumeralFormula.RationalFormula[issues.size()];
@@ -72,7 +141,6 @@ public class Z3Solver {
         this.bidUtilities = new NumeralFormula.RationalFormula[bids.size()];
 
         this.discreteIssueValues = new NumeralFormula.RationalFormula[issues.size()][];
-        this.intIssueSlopes = new NumeralFormula.RationalFormula[issues.size()];
         this.intIssueUtilities = new NumeralFormula.RationalFormula[issues.size()][2];
 
         // The constraints use an ArrayList over a primitive array due to it's variable length
@@ -85,9 +153,9 @@ public class Z3Solver {
      *
      * @param bids   - the pre-populated list of bids from a message sent from the client to the program
      * @param issues - the generated list of issues, either discrete or continuous
-     * @return - a list of values assigned by the model
+     * @return - the weights and utilities assigned by the model, or null if the model is not satisfiable
      */
-    public List<Model.ValueAssignment> estimate(List<Bid> bids, List<Issue> issues, double lowBidUitility, double highBidUtility) {
+    public ModelResult estimate(List<Bid> bids, List<Issue> issues, double lowBidUitility, double highBidUtility) {
         // Makes a call to a method for applying all the required constraints for the weighting values
         // for each issue
         addWeightConstraints();
@@ -112,16 +180,19 @@ public class Z3Solver {
 
         bidOrderConstraint(bidUtilities, lowBidUitility, highBidUtility);
 
-        prover = context.newProverEnvironment(SolverContext.ProverOptions.GENERATE_MODELS);
-
         try {
-            for (BooleanFormula b : constraints) {
-                prover.addConstraint(b);
-            }
+            // The constraints are added in a new scope, which is popped when the solver is closed so the prover is
+            // empty for the next request
+            prover.push();
+            pushedScopes++;
 
-            boolean isUnsat = prover.isUnsat();
-            assert !isUnsat;
-            return prover.getModelAssignments();
+            addPendingConstraints();
+
+            if (prover.isUnsat()) {
+                System.err.println("Model is not satisfiable");
+                return null;
+            }
+            return readModel(issues);
         } catch (InterruptedException | SolverException e) {
             System.err.println("Model is not satisfiable");
             System.err.println(e);
@@ -130,6 +201,54 @@ public class Z3Solver {
         return null;
     }
 
+    /**
+     * Reads the weights and utilities from the model by evaluating the variables created for them, so only the
+     * values which are needed are read - however many bids there are
+     *
+     * @param issues - the issues of the domain the model was built for
+     * @return - the weights and utilities assigned by the model
+     */
+    private ModelResult readModel(List<Issue> issues) throws SolverException {
+        ModelResult result = new ModelResult(issues.size());
+
+        try (Model model = prover.getModel()) {
+            for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+                Issue issue = issues.get(issueIndex);
+
+                // The weights are always above zero, so the weighted utilities can be divided by them
+                double weight = evaluate(model, weightings[issueIndex]);
+                result.setWeight(issueIndex, weight);
+
+                if (issue.getType() == ISSUETYPE.DISCRETE) {
+                    double[] utilities = new double[discreteIssueValues[issueIndex].length];
+                    for (int valueIndex = 0; valueIndex < utilities.length; valueIndex++) {
+                        utilities[valueIndex] = evaluate(model, discreteIssueValues[issueIndex][valueIndex]) / weight;
+                    }
+                    result.setDiscreteUtilities(issueIndex, utilities);
+                } else if (issue.getType() == ISSUETYPE.INTEGER) {
+                    result.setIntegerUtilities(issueIndex,
+                            evaluate(model, intIssueUtilities[issueIndex][0]) / weight,
+                            evaluate(model, intIssueUtilities[issueIndex][1]) / weight);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static double evaluate(Model model, NumeralFormula formula) {
+        // Rationals (and the integers some backends return) are both numbers
+        Object value = model.evaluate(formula);
+        return (value != null) ? ((Number) value).doubleValue() : 0.0;
+    }
+
+    private void addPendingConstraints() throws InterruptedException {
+        for (BooleanFormula b : constraints) {
+            prover.addConstraint(b);
+        }
+        constraints.clear();
+    }
+
     private void bidUtilityConstraint(int bidIndex, Bid bid) {
         List<NumeralFormula> utilSum = new ArrayList<>();
 
@@ -137,16 +256,20 @@ public class Z3Solver {
             Issue issue = bid.getIssues().get(i);
 
             if (issue.getType() == ISSUETYPE.DISCRETE) {
+                // The value's variable already includes the weight of the issue
                 int valueIndex = ((IssueDiscrete) issue).getValueIndex((ValueDiscrete) bid.getValue(issue));
-                utilSum.add(nums.multiply(
-                    discreteIssueValues[i][valueIndex],
-                    weightings[i]
-                ));
+                utilSum.add(discreteIssueValues[i][valueIndex]);
             } else if (issue.getType() == ISSUETYPE.INTEGER) {
-                NumeralFormula.RationalFormula bidValue = nums.makeNumber((((ValueInteger) bid.getValue(issue)).getValue()));
-                utilSum.add(nums.multiply(
-                    nums.add(nums.multiply(intIssueSlopes[i], bidValue), intIssueUtilities[i][0]),
-                    weightings[i]
+                // The position of the value between the bounds is a constant, so the weighted utility is a linear
+                // interpolation between the weighted utilities at either bound
+                IssueInteger intIssue = (IssueInteger) issue;
+                int width = intIssue.getUpperBound() - intIssue.getLowerBound();
+                double position = (width == 0) ? 0.0
+                        : (((ValueInteger) bid.getValue(issue)).getValue() - intIssue.getLowerBound()) / (1.0 * width);
+
+                utilSum.add(nums.add(
+                    nums.multiply(intIssueUtilities[i][0], nums.makeNumber(1 - position)),
+                    nums.multiply(intIssueUtilities[i][1], nums.makeNumber(position))
                 ));
             }
         }
@@ -196,48 +319,59 @@ public class Z3Solver {
 
     private void addIssueValues(IssueDiscrete issue, int issueIndex) {
         discreteIssueValues[issueIndex] = new NumeralFormula.RationalFormula[issue.getNumberOfValues()];
+        List<BooleanFormula> isBest = new ArrayList<>();
 
         for (int i = 0; i < issue.getNumberOfValues(); i++) {
             discreteIssueValues[issueIndex][i] = nums.makeVariable("issue-" + issueIndex + "-" + i);
-            constraints.add(nums.greaterThan(
-                    discreteIssueValues[issueIndex][i], ZERO
-            ));
-//            isBetweenOneZero(discreteIssueValues[issueIndex][i], false, true);
+
+            // The weighted utility of a value is above zero and no more than the weight, i.e. its utility is in (0, 1]
+            constraints.add(nums.greaterThan(discreteIssueValues[issueIndex][i], ZERO));
+            constraints.add(nums.lessOrEquals(discreteIssueValues[issueIndex][i], weightings[issueIndex]));
+            isBest.add(nums.equal(discreteIssueValues[issueIndex][i], weightings[issueIndex]));
         }
+
+        // GENIUS scales discrete utilities by the best value, so the best value must have a utility of 1 for the
+        // model's bid utilities to be the ones GENIUS calculates
+        constraints.add(bools.or(isBest));
     }
 
     private void addIssueValues(IssueInteger issue, int issueIndex) {
-        NumeralFormula lower = nums.makeNumber(Double.valueOf(issue.getLowerBound()));
-        NumeralFormula upper = nums.makeNumber(Double.valueOf(issue.getUpperBound()));
-
         intIssueUtilities[issueIndex][0] = nums.makeVariable("issue-" + issueIndex + "-minutil");
-        isBetweenOneZero(intIssueUtilities[issueIndex][0], true, false);
         intIssueUtilities[issueIndex][1] = nums.makeVariable("issue-" + issueIndex + "-maxutil");
-        isBetweenOneZero(intIssueUtilities[issueIndex][1], false, true);
+
+        // The same as a utility of [0, 1) at the lower bound and (0, 1] at the upper bound, scaled by the weight
+        constraints.add(nums.greaterOrEquals(intIssueUtilities[issueIndex][0], ZERO));
+        constraints.add(nums.lessOrEquals(intIssueUtilities[issueIndex][1], weightings[issueIndex]));
 
         constraints.add(
                 nums.lessThan(intIssueUtilities[issueIndex][0], intIssueUtilities[issueIndex][1])
         );
-
-        intIssueSlopes[issueIndex] = nums.makeVariable("issue-" + issueIndex + "-slope");
-        constraints.add(nums.equal(
-                intIssueSlopes[issueIndex],
-                nums.divide(
-                        nums.subtract(intIssueUtilities[issueIndex][1], intIssueUtilities[issueIndex][0]),
-                        nums.subtract(intIssueBounds[issueIndex][1], intIssueBounds[issueIndex][0])
-                )
-        ));
     }
 
+    /**
+     * Finishes with the solver context - a pooled context has this request's constraints removed and is returned to
+     * the pool, otherwise the context is destroyed. Models must be read before this is called.
+     */
     public void close() {
-        try {
-            context.close();
-            prover.close();
-            shutdown.requestShutdown("End of Use");
-        } catch (Error | Exception e) {
-            System.err.println("An error occured while closing Z3");
-            System.err.println(e);
+        if (pooled == null) {
+            return;
+        }
+
+        if (pool == null) {
+            pooled.destroy();
+        } else {
+            try {
+                for (; pushedScopes > 0; pushedScopes--) {
+                    prover.pop();
+                }
+            } catch (Error | Exception e) {
+                System.err.println("An error occured while resetting the Z3 prover");
+                System.err.println(e);
+                pooled.broken = true;
+            }
+            pool.release(pooled);
         }
+
+        pooled = null;
     }
 }
-
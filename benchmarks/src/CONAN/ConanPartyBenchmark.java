@@ -0,0 +1,117 @@
+package CONAN;
+
+import benchmarks.SyntheticScenario;
+import genius.core.AgentID;
+import genius.core.Bid;
+import genius.core.actions.Accept;
+import genius.core.actions.Action;
+import genius.core.actions.Offer;
+import genius.core.issue.IssueDiscrete;
+import genius.core.utility.EvaluatorDiscrete;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-round work of the CONAN agent: generating a bid, choosing an action and calculating utilities
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConanPartyBenchmark {
+    @Param({"4", "16"})
+    int discreteIssues;
+
+    @Param({"2"})
+    int integerIssues;
+
+    @Param({"5", "50"})
+    int values;
+
+    @Param({"3"})
+    int opponents;
+
+    private ConanParty party;
+    private List<Bid> bids;
+    private List<Class<? extends Action>> possibleActions;
+    private DiscreteValueIndex valueIndex;
+    private OutcomeSpaceEnumerator outcomeSpace;
+    private int nextBid;
+
+    @Setup
+    public void setUp() {
+        SyntheticScenario scenario = new SyntheticScenario(discreteIssues, values, integerIssues, 200, 42);
+        bids = scenario.getBids();
+
+        // Half way through the negotiation, so the self factor is used for every issue
+        party = new ConanParty();
+        party.initWithoutNegotiation(scenario.getUtilitySpace(), scenario.getUserModel(),
+                SyntheticScenario.fixedTimeLine(0.5), scenario.getWeights());
+        party.printSummaries = false;
+
+        for (int opponent = 0; opponent < opponents; opponent++) {
+            AgentID id = new AgentID("opponent-" + opponent);
+            for (int offer = 0; offer < 10; offer++) {
+                party.receiveMessage(id, new Offer(id, bids.get(opponent * 10 + offer)));
+            }
+        }
+
+        possibleActions = new ArrayList<>(Arrays.asList(Accept.class, Offer.class));
+
+        // The discrete issues always come first in the synthetic domain
+        IssueDiscrete issue = (IssueDiscrete) scenario.getIssues().get(0);
+        valueIndex = new DiscreteValueIndex(issue, (EvaluatorDiscrete) scenario.getUtilitySpace().getEvaluator(issue));
+
+        // The same enumerator the party searches for its bids, built from the same utility function
+        outcomeSpace = new OutcomeSpaceEnumerator(scenario.getUtilitySpace().getDomain(),
+                new UtilityModel(scenario.getIssues(), scenario.getUtilitySpace(), scenario.getWeights()));
+    }
+
+    @Benchmark
+    public Action chooseAction() {
+        return party.chooseAction(possibleActions);
+    }
+
+    @Benchmark
+    public Bid getNextBid() {
+        return party.getNextBid();
+    }
+
+    @Benchmark
+    public double getUtility() {
+        nextBid = (nextBid + 1) % bids.size();
+        return party.getUtility(bids.get(nextBid));
+    }
+
+    @Benchmark
+    public Object getDiscreteValue() {
+        return CONANUtils.getDiscreteValue(valueIndex, 0.37);
+    }
+
+    @Benchmark
+    public Bid bestTenBids() {
+        Iterator<Bid> bids = outcomeSpace.descending();
+        Bid bid = null;
+        for (int i = 0; i < 10 && bids.hasNext(); i++) {
+            bid = bids.next();
+        }
+        return bid;
+    }
+
+    @Benchmark
+    public List<Bid> bidsWithinRange() {
+        return outcomeSpace.withinRange(0.8, 0.01, 50);
+    }
+
+    @Benchmark
+    public double getSelfFactor() {
+        return CONANUtils.getSelfFactor(0, party);
+    }
+}
@@ -0,0 +1,45 @@
+package CONAN;
+
+import benchmarks.SyntheticScenario;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the text protocol request for the Z3GENIUS server, which grows with the size of the bid ranking
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class Z3niusPartyBenchmark {
+    @Param({"4", "16"})
+    int discreteIssues;
+
+    @Param({"2"})
+    int integerIssues;
+
+    @Param({"5"})
+    int values;
+
+    @Param({"100", "1000", "10000"})
+    int rankingSize;
+
+    private ConanParty party;
+
+    @Setup
+    public void setUp() {
+        SyntheticScenario scenario = new SyntheticScenario(discreteIssues, values, integerIssues, rankingSize, 42);
+
+        party = new ConanParty();
+        party.initWithoutNegotiation(scenario.getUtilitySpace(), scenario.getUserModel(),
+                SyntheticScenario.fixedTimeLine(0.0), scenario.getWeights());
+    }
+
+    @Benchmark
+    public String getModelRequest() {
+        return party.getModelRequest();
+    }
+}
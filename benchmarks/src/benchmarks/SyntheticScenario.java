@@ -0,0 +1,161 @@
+package benchmarks;
+
+import genius.core.Bid;
+import genius.core.issue.*;
+import genius.core.timeline.TimeLineInfo;
+import genius.core.uncertainty.BidRanking;
+import genius.core.uncertainty.UserModel;
+import genius.core.utility.AdditiveUtilitySpace;
+import genius.core.utility.EvaluatorDiscrete;
+import genius.core.utility.EvaluatorInteger;
+import genius.extended.Z3Domain;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A randomly generated negotiation scenario for the benchmarks: a domain of discrete and integer issues, a random
+ * additive utility space over it, and a ranking of random bids ordered by that utility space. The same seed always
+ * generates the same scenario, so benchmark runs can be compared.
+ */
+public class SyntheticScenario {
+    private final List<Issue> issues = new ArrayList<>();
+    private final Z3Domain domain;
+    private final AdditiveUtilitySpace utilitySpace;
+    private final double[] weights;
+    private final List<Bid> bids = new ArrayList<>();
+    private final UserModel userModel;
+
+    /**
+     * @param discreteCount - the number of discrete issues
+     * @param valueCount - the number of values in each discrete issue
+     * @param integerCount - the number of integer issues, each with the bounds [0, 10]
+     * @param bidCount - the number of random bids, which are also the size of the ranking
+     * @param seed - the seed of the random generator
+     */
+    public SyntheticScenario(int discreteCount, int valueCount, int integerCount, int bidCount, long seed) {
+        Random random = new Random(seed);
+
+        for (int issueIndex = 0; issueIndex < discreteCount; issueIndex++) {
+            String[] values = new String[valueCount];
+            for (int valueIndex = 0; valueIndex < valueCount; valueIndex++) {
+                values[valueIndex] = "value-" + valueIndex;
+            }
+            // GENIUS issue numbers start at 1
+            issues.add(new IssueDiscrete("issue-" + issues.size(), issues.size() + 1, values));
+        }
+        for (int issueIndex = 0; issueIndex < integerCount; issueIndex++) {
+            issues.add(new IssueInteger("issue-" + issues.size(), issues.size() + 1, 0, 10));
+        }
+
+        domain = new Z3Domain(issues);
+        utilitySpace = new AdditiveUtilitySpace(domain);
+        weights = new double[issues.size()];
+        double weightSum = 0.0;
+
+        for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+            Issue issue = issues.get(issueIndex);
+
+            if (issue.getType() == ISSUETYPE.DISCRETE) {
+                EvaluatorDiscrete eval = new EvaluatorDiscrete();
+                for (ValueDiscrete value : ((IssueDiscrete) issue).getValues()) {
+                    eval.setEvaluationDouble(value, random.nextDouble());
+                }
+                utilitySpace.addEvaluator(issue, eval);
+            } else {
+                EvaluatorInteger eval = new EvaluatorInteger();
+                eval.setLowerBound(0);
+                eval.setUpperBound(10);
+                eval.setLinearFunction(random.nextDouble() / 2, 0.5 + random.nextDouble() / 2);
+                utilitySpace.addEvaluator(issue, eval);
+            }
+
+            weights[issueIndex] = random.nextDouble();
+            weightSum += weights[issueIndex];
+        }
+
+        for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+            weights[issueIndex] /= weightSum;
+            utilitySpace.setWeight(issues.get(issueIndex), weights[issueIndex]);
+        }
+
+        for (int bidIndex = 0; bidIndex < bidCount; bidIndex++) {
+            bids.add(randomBid(random));
+        }
+
+        List<Bid> ranking = new ArrayList<>(bids);
+        ranking.sort((a, b) -> Double.compare(utilitySpace.getUtility(a), utilitySpace.getUtility(b)));
+        userModel = new UserModel(new BidRanking(ranking, 0.1, 1.0));
+    }
+
+    private Bid randomBid(Random random) {
+        HashMap<Integer, Value> values = new HashMap<>();
+
+        for (Issue issue : issues) {
+            if (issue.getType() == ISSUETYPE.DISCRETE) {
+                IssueDiscrete disIssue = (IssueDiscrete) issue;
+                values.put(issue.getNumber(), disIssue.getValue(random.nextInt(disIssue.getNumberOfValues())));
+            } else {
+                values.put(issue.getNumber(), new ValueInteger(random.nextInt(11)));
+            }
+        }
+
+        return new Bid(domain, values);
+    }
+
+    public List<Issue> getIssues() {
+        return issues;
+    }
+
+    public AdditiveUtilitySpace getUtilitySpace() {
+        return utilitySpace;
+    }
+
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    /**
+     * @return - the random bids, in the order they were generated
+     */
+    public List<Bid> getBids() {
+        return bids;
+    }
+
+    /**
+     * @return - a user model containing the random bids ranked by the utility space
+     */
+    public UserModel getUserModel() {
+        return userModel;
+    }
+
+    /**
+     * @param time - the normalised time the timeline is stuck at
+     * @return - a timeline which never moves, so every benchmark iteration sees the same point in the negotiation
+     */
+    public static TimeLineInfo fixedTimeLine(double time) {
+        return new TimeLineInfo() {
+            @Override
+            public Type getType() {
+                return Type.Time;
+            }
+
+            @Override
+            public double getTime() {
+                return time;
+            }
+
+            @Override
+            public double getCurrentTime() {
+                return time * getTotalTime();
+            }
+
+            @Override
+            public double getTotalTime() {
+                return 180;
+            }
+        };
+    }
+}
@@ -0,0 +1,43 @@
+package utils;
+
+import benchmarks.SyntheticScenario;
+import genius.core.uncertainty.UserModel;
+import genius.core.utility.AdditiveUtilitySpace;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparing an estimated utility space against the user's bid ranking, as done after every estimate
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SpearmanBenchmark {
+    @Param({"8"})
+    int discreteIssues;
+
+    @Param({"5"})
+    int values;
+
+    @Param({"100", "1000", "10000"})
+    int rankingSize;
+
+    private AdditiveUtilitySpace estimated;
+    private UserModel userModel;
+
+    @Setup
+    public void setUp() {
+        // The "estimate" is a different random utility space over the same kind of domain
+        userModel = new SyntheticScenario(discreteIssues, values, 0, rankingSize, 42).getUserModel();
+        estimated = new SyntheticScenario(discreteIssues, values, 0, 1, 7).getUtilitySpace();
+    }
+
+    @Benchmark
+    public double coefficient() {
+        return Spearman.coefficient(estimated, userModel);
+    }
+}
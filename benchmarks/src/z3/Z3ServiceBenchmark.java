@@ -0,0 +1,52 @@
+package z3;
+
+import benchmarks.SyntheticScenario;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a model with the solver in process, i.e. the work the Z3GENIUS server does for each request. The model
+ * cache is not involved, so every invocation solves the ranking from scratch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class Z3ServiceBenchmark {
+    @Param({"4", "8"})
+    int discreteIssues;
+
+    @Param({"0", "2"})
+    int integerIssues;
+
+    @Param({"5"})
+    int values;
+
+    @Param({"50", "500"})
+    int rankingSize;
+
+    private Z3Service service;
+    private ModelRequest request;
+
+    @Setup
+    public void setUp() {
+        SyntheticScenario scenario = new SyntheticScenario(discreteIssues, values, integerIssues, rankingSize, 42);
+        request = new ModelRequest(scenario.getIssues(), scenario.getUserModel().getBidRanking().getBidOrder(),
+                0.1, 1.0);
+
+        service = new Z3Service(1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.close();
+    }
+
+    @Benchmark
+    public ModelResult buildModel() {
+        return service.buildModel(request);
+    }
+}
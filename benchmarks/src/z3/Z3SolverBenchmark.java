@@ -0,0 +1,104 @@
+package z3;
+
+import benchmarks.SyntheticScenario;
+import genius.core.Bid;
+import genius.core.issue.IssueInteger;
+import genius.core.issue.Value;
+import genius.core.issue.ValueInteger;
+import genius.core.utility.AdditiveUtilitySpace;
+import genius.extended.Z3Domain;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solving the constraints of a ranking on mixed discrete and integer domains. The solver is built, and its context
+ * borrowed from a warm pool, before each invocation, so only the solve itself is timed.
+ *
+ * Before timing anything, an integer issue is round tripped from a model into a utility space to check the estimated
+ * utilities are read back correctly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class Z3SolverBenchmark {
+    @Param({"4"})
+    int discreteIssues;
+
+    @Param({"0", "2"})
+    int integerIssues;
+
+    @Param({"5"})
+    int values;
+
+    @Param({"100"})
+    int rankingSize;
+
+    private ModelRequest request;
+    private Z3ContextPool pool;
+    private Z3Solver z3;
+
+    @Setup
+    public void setUp() {
+        checkIntegerRoundTrip();
+
+        SyntheticScenario scenario = new SyntheticScenario(discreteIssues, values, integerIssues, rankingSize, 42);
+        request = new ModelRequest(scenario.getIssues(), scenario.getUserModel().getBidRanking().getBidOrder(),
+                0.2, 1.0);
+
+        pool = new Z3ContextPool(1);
+    }
+
+    @Setup(Level.Invocation)
+    public void buildSolver() {
+        z3 = new Z3Solver(request.getBids(), request.getIssues(), pool);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeSolver() {
+        z3.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public ModelResult estimate() {
+        return z3.estimate(request.getBids(), request.getIssues(), request.getLowBound(), request.getHighBound());
+    }
+
+    /**
+     * Checks that the utilities estimated for an integer issue survive the conversion into a GENIUS utility space,
+     * i.e. that a bid at each bound of the issue is given the utility the model estimated for that bound
+     */
+    private static void checkIntegerRoundTrip() {
+        IssueInteger issue = new IssueInteger("0", 1, 2, 12);
+        Z3Domain domain = new Z3Domain(Collections.singletonList(issue));
+
+        ModelResult result = new ModelResult(1);
+        result.setWeight(0, 1.0);
+        result.setIntegerUtilities(0, 0.25, 0.75);
+        AdditiveUtilitySpace space = result.toUtilitySpace(domain);
+
+        int[] bounds = {issue.getLowerBound(), issue.getUpperBound()};
+        double[] expected = {0.25, 0.75};
+
+        for (int i = 0; i < bounds.length; i++) {
+            HashMap<Integer, Value> values = new HashMap<>();
+            values.put(issue.getNumber(), new ValueInteger(bounds[i]));
+            double utility = space.getUtility(new Bid(domain, values));
+
+            if (Double.isNaN(utility) || Math.abs(utility - expected[i]) > 1e-9) {
+                throw new IllegalStateException("The integer issue's utility at " + bounds[i] + " is " + utility +
+                        " rather than " + expected[i]);
+            }
+        }
+    }
+}
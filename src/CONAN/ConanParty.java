@@ -7,22 +7,48 @@ import genius.core.actions.Action;
 import genius.core.actions.Offer;
 import genius.core.issue.*;
 import genius.core.parties.NegotiationInfo;
+import genius.core.timeline.TimeLineInfo;
+import genius.core.uncertainty.UserModel;
 import genius.core.utility.AdditiveUtilitySpace;
 import genius.core.utility.EvaluatorDiscrete;
-import genius.core.utility.EvaluatorInteger;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
 
 // The party extends Z3nius to take advantage of the utility space estimation capabilities.
 public class ConanParty extends Z3niusParty {
+    // The CONAN heuristics only ever look at an opponent's last 3 bids, so no more than this are stored
+    private static final int BID_HISTORY_CAPACITY = OpponentStats.WINDOW;
+    // Whether older bids are kept as a summary of the opponent's offered values, rather than discarded - the bid
+    // search uses the summary to estimate what each opponent prefers over the whole negotiation, rather than only
+    // their last few bids. This is off unless it is asked for, so by default only the last few bids are used.
+    private static final boolean SUMMARISE_BIDS = Boolean.getBoolean("z3genius.conan.summarise");
+
+    // How far the searched bid's utility may be from the concessions' target, the most bids near the target which
+    // are compared, and the longest the search may take each turn
+    private static final double SEARCH_EPSILON = 0.02;
+    private static final int SEARCH_CANDIDATES = 200;
+    private static final long SEARCH_BUDGET_NANOS = 20000000L;
+
     // The concession rate for each issue is stored in this array
     private double[] concessions;
 
+    // The utility function compiled into lookup tables once the utility space is known
+    private UtilityModel utilityModel;
+    // The values of each discrete issue sorted by utility, null for any non-discrete issue
+    private DiscreteValueIndex[] valueIndexes;
+    // Finds bids by utility over the whole outcome space, without building it
+    private ConcessionBidSearch bidSearch;
+
     // These structures store values which are used in the bid and concession calculations, helping gauge the
     // compatibility of each opponent agent
-    HashMap<AgentID, List<Bid>> agentBids;
-    HashMap<AgentID, Double> agentResponseTimes;
+    HashMap<AgentID, OpponentBidBuffer> agentBids;
+    HashMap<AgentID, OpponentStats> agentStats;
+
+    // Whether each turn's concessions and bids are printed to the console - turned off when benchmarking, so the
+    // console is not part of what is measured
+    boolean printSummaries = true;
 
     @Override
     public void init(NegotiationInfo info) {
@@ -36,12 +62,50 @@ public class ConanParty extends Z3niusParty {
             }
         }
 
+        buildModels();
+    }
+
+    /**
+     * Sets the party up outside of a GENIUS negotiation, e.g. for benchmarking. The utility space, user model and
+     * timeline which GENIUS would provide through init are given directly instead.
+     */
+    void initWithoutNegotiation(AdditiveUtilitySpace space, UserModel model, TimeLineInfo time, double[] weights) {
+        utilitySpace = space;
+        userModel = model;
+        timeline = time;
+        weightings = weights;
+        rand = new Random(0);
+
+        buildModels();
+    }
+
+    /**
+     * Compiles the utility space into lookup tables, and clears the opponent statistics, once the utility space and
+     * the weightings of each issue are known
+     */
+    private void buildModels() {
+        concessions = new double[getIssuesSize()];
+        utilityModel = new UtilityModel(getDomain().getIssues(), (AdditiveUtilitySpace) utilitySpace, weightings);
+        OutcomeSpaceEnumerator outcomeSpace = new OutcomeSpaceEnumerator(getDomain(), utilityModel);
+
+        valueIndexes = new DiscreteValueIndex[getIssuesSize()];
+        for (int i = 0; i < getIssuesSize(); i++) {
+            if (getIssue(i).getType() == ISSUETYPE.DISCRETE) {
+                IssueDiscrete disIssue = (IssueDiscrete) getIssue(i);
+                valueIndexes[i] = new DiscreteValueIndex(disIssue,
+                        (EvaluatorDiscrete) ((AdditiveUtilitySpace) utilitySpace).getEvaluator(disIssue));
+            }
+        }
+
+        bidSearch = new ConcessionBidSearch(getDomain().getIssues(), outcomeSpace, utilityModel, valueIndexes);
+
         agentBids = new HashMap<>();
-        agentResponseTimes = new HashMap<>();
+        agentStats = new HashMap<>();
     }
 
     /**
-     * Whenever an offer is received, it is stored in the opponent's list of bids and the time they responded is noted.
+     * Whenever an offer is received, it is stored in the opponent's bid buffer and their concession statistics are
+     * updated with the offer and the time they responded.
      * Then the super method from the AbstractNegotiationParty class is called to handle other aspects of the scenario
      * @param sender - the agent who sent the action
      * @param act - the action which has been sent (could be an offer, acceptance, or exit from negotiation)
@@ -50,10 +114,14 @@ public class ConanParty extends Z3niusParty {
     public void receiveMessage(AgentID sender, Action act) {
         if (act instanceof Offer && !sender.equals(getPartyId())) {
             if (!agentBids.containsKey(sender)) {
-                agentBids.put(sender, new ArrayList<>());
+                OpponentBidBuffer buffer = new OpponentBidBuffer(getDomain().getIssues(), valueIndexes,
+                        BID_HISTORY_CAPACITY, SUMMARISE_BIDS);
+                agentBids.put(sender, buffer);
+                agentStats.put(sender, new OpponentStats(getDomain().getIssues(), valueIndexes, buffer));
             }
-            agentResponseTimes.put(sender, timeline.getTime());
+            // The statistics are read from the buffer, so the offer must be buffered first
             agentBids.get(sender).add(((Offer) act).getBid());
+            agentStats.get(sender).update(timeline.getTime());
         }
 
         super.receiveMessage(sender, act);
@@ -98,10 +166,13 @@ public class ConanParty extends Z3niusParty {
     }
 
     /**
-     * This method generates a bid object using the CONAN heuristics.
+     * This method generates a bid object using the CONAN heuristics. The concessions give a target utility, and the
+     * bid near that utility which the opponents are estimated to like the most is chosen - if no bid is found near it
+     * in time, the bid built from the concession of each issue is used instead.
      * @return - a Bid object which is then used in the chooseAction method
      */
-    private Bid getNextBid() {
+    // Package private so that it can be benchmarked
+    Bid getNextBid() {
         // Generates the concession rates to be used in the newly generated issue values
         generateConcessions();
 
@@ -110,17 +181,16 @@ public class ConanParty extends Z3niusParty {
 
         // This map is passed into the bid object on its instantiation
         HashMap<Integer, Value> mappedIssueValues = new HashMap<>();
+        // The utility the concessions aim for, before each value is snapped to one the issue actually has
+        double targetUtility = 0.0;
 
         for (int i = 0; i < getIssuesSize(); i++) {
             if (getIssue(i).getType() == ISSUETYPE.DISCRETE) {
-                // Use the CONANUtils static method to generate a bid value for this issue, using the agent's evaluator
-                // object and the heuristic concession value
-                IssueDiscrete disIssue = (IssueDiscrete) getIssue(i);
-
-                EvaluatorDiscrete disEval = (EvaluatorDiscrete) ((AdditiveUtilitySpace) utilitySpace).getEvaluator(disIssue);
-
-                ValueDiscrete pickedValue = CONANUtils.getDiscreteValue(disIssue, disEval, concessions[i]);
+                // Use the CONANUtils static method to generate a bid value for this issue, using the agent's sorted
+                // issue values and the heuristic concession value
+                ValueDiscrete pickedValue = CONANUtils.getDiscreteValue(valueIndexes[i], concessions[i]);
                 mappedIssueValues.put(i + 1, pickedValue);      // Enter this generated value into the map
+                targetUtility += weightings[i] * (1 - concessions[i]);
             } else if (getIssue(i).getType() == ISSUETYPE.INTEGER) {
                 IssueInteger intIssue = (IssueInteger) getIssue(i);
 
@@ -128,9 +198,16 @@ public class ConanParty extends Z3niusParty {
                 // continuous issue
                 ValueInteger calculatedValue = CONANUtils.getIntegerValue(intIssue.getUpperBound(), intIssue.getLowerBound(), concessions[i]);
                 mappedIssueValues.put(i + 1, calculatedValue);
+                targetUtility += utilityModel.getUtility(i, calculatedValue);
             }
         }
 
+        Bid searchedBid = bidSearch.search(targetUtility, SEARCH_EPSILON, SEARCH_CANDIDATES, SEARCH_BUDGET_NANOS,
+                agentBids.values(), rand);
+        if (searchedBid != null) {
+            return searchedBid;
+        }
+
         // The bid is returned with the generated values entered into it
         return new Bid(getDomain(), mappedIssueValues);
     }
@@ -154,12 +231,11 @@ public class ConanParty extends Z3niusParty {
                 newConcessions[issueIndex] = 0.99;
             } else if (timeline.getTime() > (1.0 / (1.0 * timeline.getTotalTime()))) {
                 // Otherwise, use the self and environment factors in order to calculate the desired value
-                double self = CONANUtils.getSelfFactor(getIssue(issueIndex), this);
+                double self = CONANUtils.getSelfFactor(issueIndex, this);
 
                 // The self weighting, used below to normalise the concession result
                 double selfWeight = CONANUtils.getSelfWeighting(
-                        ((AdditiveUtilitySpace) utilitySpace).getEvaluator(getIssue(issueIndex)),
-                        getIssue(issueIndex), self, timeline.getTime());
+                        utilityModel, issueIndex, getIssue(issueIndex), self, timeline.getTime());
 
                 double newConcession = (selfWeight * self) + ((1 - selfWeight) * environment);
 
@@ -189,13 +265,17 @@ public class ConanParty extends Z3niusParty {
 
     private List<Bid> getLastBids() {
         List<Bid> bids = new ArrayList<>();
-        for (AgentID agent : agentBids.keySet()) {
-            bids.add(agentBids.get(agent).get(agentBids.get(agent).size() - 1));
+        for (OpponentBidBuffer buffer : agentBids.values()) {
+            bids.add(buffer.getLastBid());
         }
         return bids;
     }
 
     private void printConcessions() {
+        if (!printSummaries) {
+            return;
+        }
+
         printLine();
         System.out.println("Concessions\n--------");
         for (int issueIndex = 0; issueIndex < getIssuesSize(); issueIndex++) {
@@ -204,6 +284,10 @@ public class ConanParty extends Z3niusParty {
     }
 
     private void printBid(Bid b, String title) {
+        if (!printSummaries) {
+            return;
+        }
+
         printLine();
         if (title != null) {
             System.out.println(title);
@@ -229,29 +313,12 @@ public class ConanParty extends Z3niusParty {
     /**
      * There was a problem with the default agent's utility calculation - therefore I defined a simplified seperate one
      * which works in all scenarios. It uses a simple linear function for the continuous issues and the normalised
-     * double values for discrete issues.
+     * double values for discrete issues, both of which are precompiled into the UtilityModel during initialisation.
      * @param bid - the bid to calculate a utility for
      * @return - a double value between zero and one.
      */
     @Override
     public double getUtility(Bid bid) {
-        double util = 0.0;
-        for(int issueIndex = 0; issueIndex < getIssuesSize(); issueIndex++) {
-            Issue i = getIssue(issueIndex);
-
-            if(i.getType() == ISSUETYPE.DISCRETE) {
-                EvaluatorDiscrete eval = (EvaluatorDiscrete) ((AdditiveUtilitySpace) utilitySpace).getEvaluator(i);
-                eval.scaleAllValuesFrom0To1();      // Ensures the values are normalised before calculation
-                // The weightings are multiplied by the (bidValue / maxDiscreteValue)
-                util += weightings[issueIndex] * (eval.getDoubleValue((ValueDiscrete) bid.getValue(i)) / eval.getEvalMax());
-            } else if(i.getType() == ISSUETYPE.INTEGER) {
-                // The integer evaluator is used to calculate the slope (m) and offset (c) for the linear function
-                EvaluatorInteger eval = (EvaluatorInteger) ((AdditiveUtilitySpace) utilitySpace).getEvaluator(i);
-                util += weightings[issueIndex] * ((eval.getSlope() * ((ValueInteger) bid.getValue(i)).getValue()) + eval.getOffset());
-            }
-        }
-
-        // Ensures the value is normalised between 0 and 1.
-        return Math.min(util, 1.0);
+        return utilityModel.getUtility(bid);
     }
 }
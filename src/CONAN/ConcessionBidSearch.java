@@ -0,0 +1,129 @@
+package CONAN;
+
+import genius.core.Bid;
+import genius.core.issue.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Searches the outcome space for a bid near the utility the CONAN concessions aim for. Picking each issue's value
+ * independently can leave the bid's total utility far from that level, so instead the bids within a small range of
+ * it are sampled with the OutcomeSpaceEnumerator, and the one the opponents are estimated to like the most is chosen.
+ *
+ * An opponent's utility is estimated with a frequency model of their offers: a discrete value scores how often it was
+ * offered compared to the issue's most offered value, and an integer value scores how close it is to their mean offer.
+ */
+public class ConcessionBidSearch {
+    private final Issue[] issues;
+    private final OutcomeSpaceEnumerator outcomeSpace;
+    private final UtilityModel utilityModel;
+    private final DiscreteValueIndex[] valueIndexes;
+
+    /**
+     * @param issues - the issues of the domain
+     * @param outcomeSpace - the enumerator used to find bids near the target utility
+     * @param utilityModel - the agent's compiled utility function, the same one the enumerator is ordered by
+     * @param valueIndexes - the value index of each discrete issue, as used by the opponent bid buffers
+     */
+    public ConcessionBidSearch(List<Issue> issues, OutcomeSpaceEnumerator outcomeSpace, UtilityModel utilityModel,
+                               DiscreteValueIndex[] valueIndexes) {
+        this.issues = issues.toArray(new Issue[0]);
+        this.outcomeSpace = outcomeSpace;
+        this.utilityModel = utilityModel;
+        this.valueIndexes = valueIndexes;
+    }
+
+    /**
+     * @param target - the utility the bid should have
+     * @param epsilon - how far the bid's utility may be from the target
+     * @param candidates - the most bids near the target to compare
+     * @param budgetNanos - the longest the search may run for, in nanoseconds
+     * @param opponents - the bid buffers of each opponent
+     * @param random - the random generator used to sample the bids near the target
+     * @return - the bid near the target with the highest estimated opponent utility (the closest to the target if
+     * they tie), or null if no bid was found within the range and budget
+     */
+    public Bid search(double target, double epsilon, int candidates, long budgetNanos,
+                      Collection<OpponentBidBuffer> opponents, Random random) {
+        double[][][] valueScores = new double[opponents.size()][][];
+        double[][] meanValues = new double[opponents.size()][];
+
+        // The frequencies are read once per search, rather than once per candidate
+        int opponentIndex = 0;
+        for (OpponentBidBuffer buffer : opponents) {
+            valueScores[opponentIndex] = new double[issues.length][];
+            meanValues[opponentIndex] = new double[issues.length];
+
+            for (int issueIndex = 0; issueIndex < issues.length; issueIndex++) {
+                if (issues[issueIndex].getType() == ISSUETYPE.DISCRETE) {
+                    valueScores[opponentIndex][issueIndex] = getValueScores(buffer, issueIndex);
+                } else if (issues[issueIndex].getType() == ISSUETYPE.INTEGER) {
+                    meanValues[opponentIndex][issueIndex] = buffer.getMeanValue(issueIndex);
+                }
+            }
+            opponentIndex++;
+        }
+
+        Bid bestBid = null;
+        double bestScore = Double.NEGATIVE_INFINITY, bestDistance = Double.POSITIVE_INFINITY;
+
+        for (Bid bid : outcomeSpace.sampleWithinRange(target, epsilon, candidates, budgetNanos, random)) {
+            double score = 0.0;
+            for (int opponent = 0; opponent < valueScores.length; opponent++) {
+                score += getOpponentUtility(bid, valueScores[opponent], meanValues[opponent]);
+            }
+            double distance = Math.abs(utilityModel.getUtility(bid) - target);
+
+            if (score > bestScore || (score == bestScore && distance < bestDistance)) {
+                bestBid = bid;
+                bestScore = score;
+                bestDistance = distance;
+            }
+        }
+
+        return bestBid;
+    }
+
+    /**
+     * @return - the score of each value of the discrete issue, between 0 and 1, by how often the opponent offered it
+     */
+    private double[] getValueScores(OpponentBidBuffer buffer, int issueIndex) {
+        double[] scores = new double[((IssueDiscrete) issues[issueIndex]).getNumberOfValues()];
+        long maxCount = 0;
+
+        for (int valueIndex = 0; valueIndex < scores.length; valueIndex++) {
+            long count = buffer.getValueCount(issueIndex, valueIndex);
+            scores[valueIndex] = count;
+            maxCount = Math.max(maxCount, count);
+        }
+
+        for (int valueIndex = 0; valueIndex < scores.length && maxCount > 0; valueIndex++) {
+            scores[valueIndex] /= maxCount;
+        }
+        return scores;
+    }
+
+    /**
+     * @return - the opponent's estimated utility of the bid, the mean score of its values between 0 and 1
+     */
+    private double getOpponentUtility(Bid bid, double[][] valueScores, double[] meanValues) {
+        double utility = 0.0;
+
+        for (int issueIndex = 0; issueIndex < issues.length; issueIndex++) {
+            Value value = bid.getValue(issues[issueIndex]);
+
+            if (valueScores[issueIndex] != null) {
+                utility += valueScores[issueIndex][valueIndexes[issueIndex].getValueIndex((ValueDiscrete) value)];
+            } else if (issues[issueIndex].getType() == ISSUETYPE.INTEGER) {
+                IssueInteger intIssue = (IssueInteger) issues[issueIndex];
+                int range = intIssue.getUpperBound() - intIssue.getLowerBound();
+                double distance = Math.abs(((ValueInteger) value).getValue() - meanValues[issueIndex]);
+                utility += (range == 0) ? 1.0 : 1.0 - (distance / range);
+            }
+        }
+
+        return utility / issues.length;
+    }
+}
@@ -0,0 +1,125 @@
+package CONAN;
+
+import genius.core.issue.IssueDiscrete;
+import genius.core.issue.ValueDiscrete;
+import genius.core.utility.EvaluatorDiscrete;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The values of a single discrete issue, sorted by their normalised utility. As the evaluator does not change once
+ * the utility space has been estimated, this is built once per issue and then searched for every generated bid.
+ */
+public class DiscreteValueIndex {
+    // The issue values, sorted from the lowest to the highest utility
+    private final ValueDiscrete[] sortedValues;
+    // The normalised utility of each value in the sortedValues array
+    private final double[] sortedUtilities;
+
+    // The normalised utility of each value, in the order of the IssueDiscrete value indices
+    private final double[] utilities;
+    private final HashMap<ValueDiscrete, Integer> valueIndices;
+
+    private final ValueDiscrete maxValue;
+
+    /**
+     * Normalises the evaluator and sorts the values of the issue by their evaluated utility
+     * @param issue - the discrete issue to build the index for
+     * @param eval - the evaluator which is fetched from the user's utility space
+     */
+    public DiscreteValueIndex(IssueDiscrete issue, EvaluatorDiscrete eval) {
+        // Ensures all the evaluator values are between 0 and 1.
+        eval.normalizeAll();
+
+        // A new list is required so the domain's own value list is not reordered
+        List<ValueDiscrete> values = new ArrayList<>(issue.getValues());
+        values.sort(Comparator.comparingDouble(eval::getDoubleValue));
+
+        sortedValues = values.toArray(new ValueDiscrete[0]);
+        sortedUtilities = new double[sortedValues.length];
+        for (int i = 0; i < sortedValues.length; i++) {
+            sortedUtilities[i] = eval.getDoubleValue(sortedValues[i]);
+        }
+
+        utilities = new double[issue.getNumberOfValues()];
+        valueIndices = new HashMap<>();
+        for (int valueIndex = 0; valueIndex < issue.getNumberOfValues(); valueIndex++) {
+            ValueDiscrete value = issue.getValue(valueIndex);
+            utilities[valueIndex] = eval.getDoubleValue(value);
+            valueIndices.put(value, valueIndex);
+        }
+
+        maxValue = (ValueDiscrete) eval.getMaxValue();
+    }
+
+    /**
+     * Finds the value whose normalised utility is closest to the target, using a binary search over the sorted values
+     * @param target - the normalised utility to aim for
+     * @return - the closest value, or the highest valued one if the target lies outside of the value range
+     */
+    public ValueDiscrete getClosestValue(double target) {
+        if (sortedValues.length > 1) {
+            // Sometimes the target is less than the smallest value, therefore this value is returned
+            if (target < sortedUtilities[0]) {
+                return sortedValues[0];
+            }
+
+            int found = Arrays.binarySearch(sortedUtilities, target);
+            if (found >= 0) {
+                return sortedValues[found];
+            }
+
+            // Otherwise the target lies between the values either side of the insertion point, and the one which is
+            // closest is then chosen
+            int highIndex = -found - 1;
+            if (highIndex < sortedValues.length) {
+                double lowValue = sortedUtilities[highIndex - 1];
+                double highValue = sortedUtilities[highIndex];
+
+                return (Math.abs(highValue - target) > Math.abs(lowValue - target))
+                        ? sortedValues[highIndex - 1]
+                        : sortedValues[highIndex];
+            }
+        }
+
+        // If there is only one value in the array, or the target is above every value, return the highest
+        // possible discrete value
+        return maxValue;
+    }
+
+    /**
+     * @param value - a value of the indexed issue
+     * @return - the normalised utility of said value
+     */
+    public double getUtility(ValueDiscrete value) {
+        return utilities[valueIndices.get(value)];
+    }
+
+    /**
+     * @param valueIndex - the index of a value in the IssueDiscrete
+     * @return - the normalised utility of said value
+     */
+    public double getUtility(int valueIndex) {
+        return utilities[valueIndex];
+    }
+
+    /**
+     * @param value - a value of the indexed issue
+     * @return - the index of said value in the IssueDiscrete
+     */
+    public int getValueIndex(ValueDiscrete value) {
+        return valueIndices.get(value);
+    }
+
+    public double getMinUtility() {
+        return sortedUtilities[0];
+    }
+
+    public double getMaxUtility() {
+        return sortedUtilities[sortedUtilities.length - 1];
+    }
+}
@@ -0,0 +1,148 @@
+package CONAN;
+
+import genius.core.Bid;
+import genius.core.issue.*;
+
+import java.util.List;
+
+/**
+ * A fixed size history of the bids an opponent has offered. Rather than keeping every Bid object, each bid is encoded
+ * as one int per issue (the value index for discrete issues, and the value itself for integer issues) in a ring
+ * buffer - so the memory used stays the same however long the negotiation runs.
+ * Optionally, bids which are pushed out of the buffer can be spilled into a summary of how often each value has been
+ * offered, for any analysis of the opponent over the whole negotiation.
+ */
+public class OpponentBidBuffer {
+    private final Issue[] issues;
+    private final DiscreteValueIndex[] valueIndexes;
+
+    // The encoded bids, indexed by [slot][issue]
+    private final int[][] entries;
+    private int head;       // The slot the next bid will be written to
+    private int size;
+    private long totalOffers;
+
+    // The last offered bid is kept as an object, as it is required when accepting an opponent's offer
+    private Bid lastBid;
+
+    // For each discrete issue, the number of times each value was offered by bids which have left the buffer. For
+    // each integer issue a single running sum of the values is kept. Null if no summary is being kept.
+    private final long[][] spilledCounts;
+    private final long[] spilledSums;
+
+    /**
+     * @param issues - the issues of the domain
+     * @param valueIndexes - the value index of each discrete issue, used to encode the values of a bid
+     * @param capacity - the number of most recent bids which are kept
+     * @param summarise - whether bids which leave the buffer should be added to the value summary
+     */
+    public OpponentBidBuffer(List<Issue> issues, DiscreteValueIndex[] valueIndexes, int capacity, boolean summarise) {
+        this.issues = issues.toArray(new Issue[0]);
+        this.valueIndexes = valueIndexes;
+        this.entries = new int[capacity][issues.size()];
+
+        if (summarise) {
+            spilledCounts = new long[issues.size()][];
+            spilledSums = new long[issues.size()];
+            for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+                if (issues.get(issueIndex).getType() == ISSUETYPE.DISCRETE) {
+                    spilledCounts[issueIndex] = new long[((IssueDiscrete) issues.get(issueIndex)).getNumberOfValues()];
+                }
+            }
+        } else {
+            spilledCounts = null;
+            spilledSums = null;
+        }
+    }
+
+    /**
+     * Encodes the bid into the buffer, overwriting (and possibly summarising) the oldest bid if the buffer is full
+     * @param bid - the bid offered by the opponent
+     */
+    public void add(Bid bid) {
+        if (size == entries.length) {
+            spill(entries[head]);
+        } else {
+            size++;
+        }
+
+        int[] entry = entries[head];
+        for (int issueIndex = 0; issueIndex < issues.length; issueIndex++) {
+            Value value = bid.getValue(issues[issueIndex]);
+
+            if (issues[issueIndex].getType() == ISSUETYPE.DISCRETE) {
+                entry[issueIndex] = valueIndexes[issueIndex].getValueIndex((ValueDiscrete) value);
+            } else if (issues[issueIndex].getType() == ISSUETYPE.INTEGER) {
+                entry[issueIndex] = ((ValueInteger) value).getValue();
+            }
+        }
+
+        head = (head + 1) % entries.length;
+        totalOffers++;
+        lastBid = bid;
+    }
+
+    private void spill(int[] entry) {
+        if (spilledCounts == null) {
+            return;
+        }
+
+        for (int issueIndex = 0; issueIndex < issues.length; issueIndex++) {
+            if (spilledCounts[issueIndex] != null) {
+                spilledCounts[issueIndex][entry[issueIndex]]++;
+            } else {
+                spilledSums[issueIndex] += entry[issueIndex];
+            }
+        }
+    }
+
+    /**
+     * @param back - how many bids back to look, 0 being the most recent bid
+     * @param issueIndex - the index of the issue in the domain's issue list
+     * @return - the encoded value (value index or integer value) of the issue in said bid
+     */
+    public int getEncodedValue(int back, int issueIndex) {
+        if (back < 0 || back >= size) {
+            throw new IndexOutOfBoundsException("Only the last " + size + " bids are available");
+        }
+        return entries[Math.floorMod(head - 1 - back, entries.length)][issueIndex];
+    }
+
+    /**
+     * @param issueIndex - the index of a discrete issue in the domain's issue list
+     * @param valueIndex - the index of the value in said issue
+     * @return - the number of times the opponent has offered this value, over the whole negotiation if the summary is
+     * kept, otherwise only over the buffered bids
+     */
+    public long getValueCount(int issueIndex, int valueIndex) {
+        long count = (spilledCounts != null) ? spilledCounts[issueIndex][valueIndex] : 0;
+        for (int back = 0; back < size; back++) {
+            if (getEncodedValue(back, issueIndex) == valueIndex) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param issueIndex - the index of an integer issue in the domain's issue list
+     * @return - the mean value the opponent has offered, over the same bids as getValueCount
+     */
+    public double getMeanValue(int issueIndex) {
+        long sum = (spilledSums != null) ? spilledSums[issueIndex] : 0;
+        for (int back = 0; back < size; back++) {
+            sum += getEncodedValue(back, issueIndex);
+        }
+
+        long counted = (spilledSums != null) ? totalOffers : size;
+        return (counted == 0) ? 0.0 : (1.0 * sum) / counted;
+    }
+
+    public Bid getLastBid() {
+        return lastBid;
+    }
+
+    public int size() {
+        return size;
+    }
+}
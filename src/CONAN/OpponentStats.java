@@ -0,0 +1,87 @@
+package CONAN;
+
+import genius.core.issue.*;
+
+import java.util.List;
+
+/**
+ * Rolling statistics about a single opponent, updated as each of their offers arrives. This holds everything the
+ * CONAN self factor requires, so it does not need to look back through the opponent's bids on every turn. The recent
+ * offers themselves are read from the opponent's bid buffer, rather than kept a second time here.
+ */
+public class OpponentStats {
+    // The number of recent offers the concession is measured over (the last offer and the one two before it)
+    static final int WINDOW = 3;
+
+    private final Issue[] issues;
+    private final DiscreteValueIndex[] valueIndexes;
+    private final OpponentBidBuffer bids;
+
+    // The classified concession of the opponent for each issue, between the last value and the value 3 offers back
+    private final double[] concessionClasses;
+
+    private double responseTime;
+
+    /**
+     * @param issues - the issues of the domain
+     * @param valueIndexes - the sorted values of each discrete issue, used to find the normalised utility of a value
+     * @param bids - the opponent's bid buffer, which must hold at least WINDOW bids
+     */
+    public OpponentStats(List<Issue> issues, DiscreteValueIndex[] valueIndexes, OpponentBidBuffer bids) {
+        this.issues = issues.toArray(new Issue[0]);
+        this.valueIndexes = valueIndexes;
+        this.bids = bids;
+        this.concessionClasses = new double[issues.size()];
+    }
+
+    /**
+     * Recalculates the concession of the opponent for each issue, once their newest offer has been added to the
+     * bid buffer
+     * @param time - the time at which the offer was received
+     */
+    public void update(double time) {
+        responseTime = time;
+
+        // The oldest offer still considered, as the opponent may not have made 3 offers yet
+        int oldest = Math.min(bids.size(), WINDOW) - 1;
+
+        for (int issueIndex = 0; issueIndex < issues.length; issueIndex++) {
+            Issue issue = issues[issueIndex];
+            int lastValue = bids.getEncodedValue(0, issueIndex);
+            int oldestValue = bids.getEncodedValue(oldest, issueIndex);
+            double calculatedVal;
+
+            if (issue.getType() == ISSUETYPE.DISCRETE) {
+                DiscreteValueIndex index = valueIndexes[issueIndex];
+
+                // Calculate how much the opponent has conceded over the last few bids using the CONAN paper formulae
+                calculatedVal = 1.0 - ((index.getUtility(oldestValue) - index.getUtility(lastValue)) /
+                        (index.getMinUtility() - index.getMaxUtility()));
+            } else if (issue.getType() == ISSUETYPE.INTEGER) {
+                IssueInteger intIssue = (IssueInteger) issue;
+                calculatedVal = 1.0 - (Math.abs(oldestValue - lastValue) /
+                        (1.0 * (intIssue.getUpperBound() - intIssue.getLowerBound())));
+            } else {
+                continue;
+            }
+
+            // Normalise this value with the classification function
+            concessionClasses[issueIndex] = CONANUtils.classifiedNormalisation(calculatedVal);
+        }
+    }
+
+    /**
+     * @param issueIndex - the index of the issue in the domain's issue list
+     * @return - the classified concession {0, 1, 2, 3} of the opponent over their last few offers for said issue
+     */
+    public double getConcessionClass(int issueIndex) {
+        return concessionClasses[issueIndex];
+    }
+
+    /**
+     * @return - the time at which the opponent's last offer was received
+     */
+    public double getResponseTime() {
+        return responseTime;
+    }
+}
@@ -0,0 +1,286 @@
+package CONAN;
+
+import genius.core.Bid;
+import genius.core.Domain;
+import genius.core.issue.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Finds bids by their utility without building the whole outcome space, which is far too large to hold in memory
+ * for domains with many issues. The values of each issue are sorted by the weighted utility they add to a bid (from
+ * the UtilityModel), so bids can be enumerated in decreasing order of utility with a priority queue, and bids within
+ * a range of utility can be found with a search which skips any values that cannot reach the range.
+ *
+ * ConanParty only uses it to search for the bids it offers. Its acceptance compares the opponent's offer with its own
+ * next bid, which needs no search of the outcome space, so the enumerator is not used there.
+ */
+public class OutcomeSpaceEnumerator {
+    // How many bids within the range sampleWithinRange looks at for each bid it returns, before it stops searching -
+    // a wide range of a huge domain would otherwise always be searched until the budget is spent
+    private static final int SAMPLE_OVERSCAN = 4;
+
+    private final Domain domain;
+    private final Issue[] issues;
+
+    // The values of each issue, sorted from the highest to the lowest weighted utility
+    private final Value[][] values;
+    private final double[][] utilities;
+
+    // The most and least utility that the issues after each index can add to a bid, i.e. maxRemaining[i] is the sum
+    // of the best values of issues i, i + 1, ...
+    private final double[] maxRemaining;
+    private final double[] minRemaining;
+
+    /**
+     * @param domain - the domain to build bids for
+     * @param model - the compiled utility function the bids are ordered by
+     */
+    public OutcomeSpaceEnumerator(Domain domain, UtilityModel model) {
+        this.domain = domain;
+        this.issues = domain.getIssues().toArray(new Issue[0]);
+        this.values = new Value[issues.length][];
+        this.utilities = new double[issues.length][];
+        this.maxRemaining = new double[issues.length + 1];
+        this.minRemaining = new double[issues.length + 1];
+
+        for (int issueIndex = 0; issueIndex < issues.length; issueIndex++) {
+            List<Value> issueValues = new ArrayList<>();
+
+            if (issues[issueIndex].getType() == ISSUETYPE.DISCRETE) {
+                issueValues.addAll(((IssueDiscrete) issues[issueIndex]).getValues());
+            } else if (issues[issueIndex].getType() == ISSUETYPE.INTEGER) {
+                IssueInteger intIssue = (IssueInteger) issues[issueIndex];
+                for (int value = intIssue.getLowerBound(); value <= intIssue.getUpperBound(); value++) {
+                    issueValues.add(new ValueInteger(value));
+                }
+            }
+
+            // Each value's utility is calculated once, then the values are sorted by it
+            HashMap<Value, Double> issueUtilities = new HashMap<>();
+            for (Value value : issueValues) {
+                issueUtilities.put(value, model.getUtility(issueIndex, value));
+            }
+            issueValues.sort(Comparator.comparingDouble((Value value) -> issueUtilities.get(value)).reversed());
+
+            values[issueIndex] = issueValues.toArray(new Value[0]);
+            utilities[issueIndex] = new double[values[issueIndex].length];
+            for (int valueIndex = 0; valueIndex < values[issueIndex].length; valueIndex++) {
+                utilities[issueIndex][valueIndex] = issueUtilities.get(values[issueIndex][valueIndex]);
+            }
+        }
+
+        for (int issueIndex = issues.length - 1; issueIndex >= 0; issueIndex--) {
+            double[] issueUtilities = utilities[issueIndex];
+            maxRemaining[issueIndex] = maxRemaining[issueIndex + 1] + issueUtilities[0];
+            minRemaining[issueIndex] = minRemaining[issueIndex + 1] + issueUtilities[issueUtilities.length - 1];
+        }
+    }
+
+    /**
+     * Lazily enumerates every bid of the domain, from the highest utility to the lowest. Each bid is only built when
+     * it is reached, so taking the first few bids of a huge domain is cheap.
+     *
+     * @return - an iterator over the bids in decreasing order of utility
+     */
+    public Iterator<Bid> descending() {
+        return new DescendingIterator();
+    }
+
+    /**
+     * Finds bids whose utility is within epsilon of the target, skipping every combination of values which cannot
+     * reach that range
+     *
+     * @param target - the utility the bids should have
+     * @param epsilon - how far the utility of a bid may be from the target
+     * @param limit - the most bids to return, as a wide range of a huge domain may contain far too many
+     * @return - up to limit bids within the range, favouring those with the best values for the first issues
+     */
+    public List<Bid> withinRange(double target, double epsilon, int limit) {
+        return withinRange(target, epsilon, limit, Long.MAX_VALUE);
+    }
+
+    /**
+     * The same search as above, but stopping once the time budget is spent - so a range which few bids reach cannot
+     * hold up the negotiation
+     *
+     * @param budgetNanos - the longest the search may run for, in nanoseconds
+     * @return - the bids found within the range before the budget ran out
+     */
+    public List<Bid> withinRange(double target, double epsilon, int limit, long budgetNanos) {
+        List<Bid> bids = new ArrayList<>();
+        long start = System.nanoTime();
+        collectWithinRange(0, 0.0, new int[issues.length], target - epsilon, target + epsilon, limit, bids,
+                start, budgetNanos);
+        return bids;
+    }
+
+    /**
+     * Samples bids evenly from those whose utility is within epsilon of the target. Unlike withinRange, whose bids
+     * mostly differ in the last issues, every issue's values are visited in a random order and each bid found is kept
+     * by reservoir sampling - so if the search finishes every bid in the range was equally likely to be kept, and if it
+     * does not the bids found are still spread across the values of every issue. The search stops once it has found a
+     * few times more bids than the sample size, or the budget is spent.
+     *
+     * @param target - the utility the bids should have
+     * @param epsilon - how far the utility of a bid may be from the target
+     * @param sampleSize - the most bids to return
+     * @param budgetNanos - the longest the search may run for, in nanoseconds
+     * @param random - the random generator used to order the values and choose the kept bids
+     * @return - up to sampleSize bids within the range
+     */
+    public List<Bid> sampleWithinRange(double target, double epsilon, int sampleSize, long budgetNanos,
+                                       Random random) {
+        List<int[]> sample = new ArrayList<>();
+        long[] found = new long[1];
+        long start = System.nanoTime();
+
+        sampleWithinRange(0, 0.0, new int[issues.length], target - epsilon, target + epsilon, sampleSize,
+                (long) sampleSize * SAMPLE_OVERSCAN, sample, found, random, start, budgetNanos);
+
+        List<Bid> bids = new ArrayList<>(sample.size());
+        for (int[] positions : sample) {
+            bids.add(toBid(positions));
+        }
+        return bids;
+    }
+
+    private void sampleWithinRange(int issueIndex, double partial, int[] positions, double low, double high,
+                                   int sampleSize, long enough, List<int[]> sample, long[] found, Random random,
+                                   long start, long budgetNanos) {
+        if (issueIndex == issues.length) {
+            // Reservoir sampling - the nth bid found replaces a kept bid with a probability of sampleSize / n
+            found[0]++;
+            if (sample.size() < sampleSize) {
+                sample.add(positions.clone());
+            } else {
+                long slot = (long) (random.nextDouble() * found[0]);
+                if (slot < sampleSize) {
+                    sample.set((int) slot, positions.clone());
+                }
+            }
+            return;
+        } else if (found[0] >= enough || System.nanoTime() - start > budgetNanos) {
+            return;
+        }
+
+        double[] issueUtilities = utilities[issueIndex];
+        int[] order = new int[issueUtilities.length];
+        for (int i = 0; i < order.length; i++) {
+            int swap = random.nextInt(i + 1);
+            order[i] = order[swap];
+            order[swap] = i;
+        }
+
+        for (int valueIndex : order) {
+            double utility = partial + issueUtilities[valueIndex];
+
+            // The values are not visited in order, so each one which cannot reach the range is skipped on its own
+            if (utility + maxRemaining[issueIndex + 1] < low || utility + minRemaining[issueIndex + 1] > high) {
+                continue;
+            }
+
+            positions[issueIndex] = valueIndex;
+            sampleWithinRange(issueIndex + 1, utility, positions, low, high, sampleSize, enough, sample, found,
+                    random, start, budgetNanos);
+        }
+    }
+
+    private void collectWithinRange(int issueIndex, double partial, int[] positions, double low, double high,
+                                    int limit, List<Bid> bids, long start, long budgetNanos) {
+        if (issueIndex == issues.length) {
+            bids.add(toBid(positions));
+            return;
+        } else if (System.nanoTime() - start > budgetNanos) {
+            return;
+        }
+
+        double[] issueUtilities = utilities[issueIndex];
+        for (int valueIndex = 0; valueIndex < issueUtilities.length && bids.size() < limit; valueIndex++) {
+            double utility = partial + issueUtilities[valueIndex];
+
+            if (utility + maxRemaining[issueIndex + 1] < low) {
+                // The values are sorted, so none of the remaining values can reach the range either
+                break;
+            } else if (utility + minRemaining[issueIndex + 1] > high) {
+                // Even the worst values of the remaining issues would be above the range, so try a worse value
+                continue;
+            }
+
+            positions[issueIndex] = valueIndex;
+            collectWithinRange(issueIndex + 1, utility, positions, low, high, limit, bids, start, budgetNanos);
+        }
+    }
+
+    private Bid toBid(int[] positions) {
+        HashMap<Integer, Value> bidValues = new HashMap<>();
+        for (int issueIndex = 0; issueIndex < issues.length; issueIndex++) {
+            bidValues.put(issues[issueIndex].getNumber(), values[issueIndex][positions[issueIndex]]);
+        }
+        return new Bid(domain, bidValues);
+    }
+
+    /**
+     * A combination of value positions waiting in the queue. Each combination is only ever queued by one parent -
+     * the combination with its last moved issue moved back by one - so no set of visited combinations is needed.
+     */
+    private static class Candidate {
+        private final int[] positions;
+        // The highest issue index which has been moved from its best value, so children only move this issue or later
+        private final int lastMoved;
+        private final double utility;
+
+        Candidate(int[] positions, int lastMoved, double utility) {
+            this.positions = positions;
+            this.lastMoved = lastMoved;
+            this.utility = utility;
+        }
+    }
+
+    private class DescendingIterator implements Iterator<Bid> {
+        private final PriorityQueue<Candidate> queue =
+                new PriorityQueue<>(Comparator.comparingDouble((Candidate candidate) -> candidate.utility).reversed());
+
+        DescendingIterator() {
+            if (issues.length > 0) {
+                queue.add(new Candidate(new int[issues.length], 0, maxRemaining[0]));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Bid next() {
+            Candidate candidate = queue.poll();
+            if (candidate == null) {
+                throw new NoSuchElementException();
+            }
+
+            // Moving an issue to its next value never increases the utility, so each child is no better than this one
+            for (int issueIndex = candidate.lastMoved; issueIndex < issues.length; issueIndex++) {
+                int position = candidate.positions[issueIndex];
+                if (position + 1 < values[issueIndex].length) {
+                    int[] childPositions = Arrays.copyOf(candidate.positions, issues.length);
+                    childPositions[issueIndex]++;
+
+                    double childUtility = candidate.utility - utilities[issueIndex][position]
+                            + utilities[issueIndex][position + 1];
+                    queue.add(new Candidate(childPositions, issueIndex, childUtility));
+                }
+            }
+
+            return toBid(candidate.positions);
+        }
+    }
+}
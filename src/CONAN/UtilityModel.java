@@ -0,0 +1,119 @@
+package CONAN;
+
+import genius.core.Bid;
+import genius.core.issue.*;
+import genius.core.utility.AdditiveUtilitySpace;
+import genius.core.utility.EvaluatorDiscrete;
+import genius.core.utility.EvaluatorInteger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A compiled version of the agent's additive utility function. The evaluators in the utility space are read once when
+ * the model is built, and the weighted utility of each possible issue value is stored in primitive arrays - meaning a
+ * bid can be scored without touching (or mutating) the GENIUS evaluators.
+ */
+public class UtilityModel {
+    private final Issue[] issues;
+
+    // The weighted utility of each discrete value, indexed by [issue][value index in the IssueDiscrete]
+    private final double[][] discreteUtilities;
+    // Used to find the index of a discrete value in a bid without scanning the issue's value list
+    private final List<HashMap<ValueDiscrete, Integer>> valueIndices;
+
+    // The weighted slope (m) and offset (c) of the linear function for each integer issue
+    private final double[] slopes;
+    private final double[] offsets;
+
+    // The difference between the best and worst values of each discrete issue, before weighting - i.e. between the
+    // utilities of the evaluator after normalising it by its best value
+    private final double[] normalisedRanges;
+
+    /**
+     * Builds the utility tables for each issue in the domain - this should only be done once the utility space is
+     * final, i.e. after the initialisation or estimation of the utility space
+     * @param issues - the issues of the domain, in the same order as the weightings
+     * @param space - the utility space containing the evaluator for each issue
+     * @param weightings - the weighting of each issue
+     */
+    public UtilityModel(List<Issue> issues, AdditiveUtilitySpace space, double[] weightings) {
+        this.issues = issues.toArray(new Issue[0]);
+        this.discreteUtilities = new double[issues.size()][];
+        this.valueIndices = new ArrayList<>(issues.size());
+        this.slopes = new double[issues.size()];
+        this.offsets = new double[issues.size()];
+        this.normalisedRanges = new double[issues.size()];
+
+        for (int issueIndex = 0; issueIndex < issues.size(); issueIndex++) {
+            Issue issue = issues.get(issueIndex);
+            HashMap<ValueDiscrete, Integer> indices = null;
+
+            if (issue.getType() == ISSUETYPE.DISCRETE) {
+                IssueDiscrete disIssue = (IssueDiscrete) issue;
+                EvaluatorDiscrete eval = (EvaluatorDiscrete) space.getEvaluator(issue);
+                eval.scaleAllValuesFrom0To1();      // Ensures the values are normalised, this only needs doing once now
+
+                indices = new HashMap<>();
+                discreteUtilities[issueIndex] = new double[disIssue.getNumberOfValues()];
+
+                for (int valueIndex = 0; valueIndex < disIssue.getNumberOfValues(); valueIndex++) {
+                    ValueDiscrete value = disIssue.getValue(valueIndex);
+                    indices.put(value, valueIndex);
+
+                    // The weightings are multiplied by the (bidValue / maxDiscreteValue)
+                    discreteUtilities[issueIndex][valueIndex] =
+                            weightings[issueIndex] * (eval.getDoubleValue(value) / eval.getEvalMax());
+                }
+
+                normalisedRanges[issueIndex] = (eval.getDoubleValue((ValueDiscrete) eval.getMaxValue()) -
+                        eval.getDoubleValue((ValueDiscrete) eval.getMinValue())) / eval.getEvalMax();
+            } else if (issue.getType() == ISSUETYPE.INTEGER) {
+                // The integer evaluator is used to calculate the slope (m) and offset (c) for the linear function
+                EvaluatorInteger eval = (EvaluatorInteger) space.getEvaluator(issue);
+                slopes[issueIndex] = weightings[issueIndex] * eval.getSlope();
+                offsets[issueIndex] = weightings[issueIndex] * eval.getOffset();
+            }
+
+            valueIndices.add(indices);
+        }
+    }
+
+    /**
+     * Calculates the utility of a bid using the precompiled tables
+     * @param bid - the bid to calculate a utility for
+     * @return - a double value between zero and one.
+     */
+    public double getUtility(Bid bid) {
+        double util = 0.0;
+        for (int issueIndex = 0; issueIndex < issues.length; issueIndex++) {
+            util += getUtility(issueIndex, bid.getValue(issues[issueIndex]));
+        }
+
+        // Ensures the value is normalised between 0 and 1.
+        return Math.min(util, 1.0);
+    }
+
+    /**
+     * @param issueIndex - the index of a discrete issue in the domain's issue list
+     * @return - the difference between the normalised utilities of the issue's best and worst values, between 0 and 1
+     */
+    public double getNormalisedRange(int issueIndex) {
+        return normalisedRanges[issueIndex];
+    }
+
+    /**
+     * @param issueIndex - the index of the issue in the domain's issue list
+     * @param value - a value of said issue
+     * @return - the weighted utility this value contributes to a bid
+     */
+    public double getUtility(int issueIndex, Value value) {
+        if (discreteUtilities[issueIndex] != null) {
+            return discreteUtilities[issueIndex][valueIndices.get(issueIndex).get(value)];
+        } else if (issues[issueIndex].getType() == ISSUETYPE.INTEGER) {
+            return (slopes[issueIndex] * ((ValueInteger) value).getValue()) + offsets[issueIndex];
+        }
+        return 0.0;
+    }
+}
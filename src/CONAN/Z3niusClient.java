@@ -0,0 +1,252 @@
+package CONAN;
+
+import z3.BinaryProtocol;
+import z3.ModelRequest;
+import z3.ModelResult;
+import z3.Z3ParseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An asynchronous client for the Z3GENIUS server. Every step of a request (connecting, writing and reading) runs
+ * without blocking a thread and has its own timeout, and the whole request is returned as a CompletableFuture so the
+ * caller can decide how long it is willing to wait overall.
+ */
+public class Z3niusClient {
+    // Used to fail a connection attempt which takes too long, as AsynchronousSocketChannel has no connect timeout
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "z3nius-client-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final InetSocketAddress address;
+    private final long connectTimeoutMs;
+    private final long readTimeoutMs;
+
+    /**
+     * @param host - the host the Z3GENIUS server is running on
+     * @param port - the port the Z3GENIUS server is listening on
+     * @param connectTimeoutMs - how long to wait for the connection to be accepted
+     * @param readTimeoutMs - how long to wait for each read or write on the connection
+     */
+    public Z3niusClient(String host, int port, long connectTimeoutMs, long readTimeoutMs) {
+        this.address = new InetSocketAddress(host, port);
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    /**
+     * Sends the request as a single binary frame, completing with the model sent back. The future completes
+     * exceptionally with a Z3ParseException if the server could not build a model, an EOFException or
+     * ProtocolException if the server does not understand the binary protocol, or another exception if the connection
+     * failed (e.g. a ConnectException if it was refused, or a timeout).
+     */
+    public CompletableFuture<ModelResult> requestBinary(ModelRequest request) {
+        return exchange(channel -> {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            ByteBuffer payload = BinaryProtocol.encodeRequest(request);
+            header.putInt(BinaryProtocol.MAGIC).putInt(payload.remaining()).flip();
+
+            return write(channel, header)
+                    .thenCompose(v -> write(channel, payload))
+                    .thenApply(v -> {
+                        // Closing the output lets a server which only understands the text protocol stop waiting for
+                        // a line, so it will close the connection rather than leave the client waiting
+                        try {
+                            channel.shutdownOutput();
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                        return v;
+                    })
+                    .thenCompose(v -> readFully(channel, ByteBuffer.allocate(8)))
+                    .thenCompose(frameHeader -> {
+                        if (frameHeader.getInt() != BinaryProtocol.MAGIC) {
+                            throw new CompletionException(new ProtocolException("The response was not a binary frame"));
+                        }
+                        return readFully(channel, ByteBuffer.allocate(frameHeader.getInt()));
+                    })
+                    .thenApply(frame -> {
+                        try {
+                            return BinaryProtocol.decodeResult(frame);
+                        } catch (Z3ParseException e) {
+                            throw new CompletionException(e);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Sends the request as a single line of the ";;;" separated text protocol, completing with the model sent back
+     *
+     * @param message - the BLDMDL message
+     * @param issueCount - the number of issues in the domain
+     */
+    public CompletableFuture<ModelResult> requestText(String message, int issueCount) {
+        return exchange(channel -> write(channel, ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8)))
+                .thenCompose(v -> readLine(channel, ByteBuffer.allocate(8192), new ByteArrayOutputStream()))
+                .thenApply(line -> {
+                    try {
+                        return ModelResult.fromMessage(line.split(";;;"), issueCount);
+                    } catch (Z3ParseException e) {
+                        throw new CompletionException(e);
+                    }
+                }));
+    }
+
+    private interface Exchange {
+        CompletableFuture<ModelResult> run(AsynchronousSocketChannel channel);
+    }
+
+    /**
+     * Opens a connection, runs the exchange over it and closes the connection once the exchange is complete - or
+     * when the returned future is cancelled by the caller.
+     */
+    private CompletableFuture<ModelResult> exchange(Exchange exchange) {
+        AsynchronousSocketChannel channel;
+        try {
+            channel = AsynchronousSocketChannel.open();
+        } catch (IOException e) {
+            CompletableFuture<ModelResult> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        CompletableFuture<ModelResult> result = connect(channel).thenCompose(v -> exchange.run(channel));
+        result.whenComplete((r, e) -> close(channel));
+        return result;
+    }
+
+    private CompletableFuture<Void> connect(AsynchronousSocketChannel channel) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        channel.connect(address, null, new CompletionHandler<Void, Void>() {
+            @Override
+            public void completed(Void v, Void attachment) {
+                future.complete(null);
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        TIMER.schedule(() -> {
+            if (future.completeExceptionally(new TimeoutException("Connecting to Z3GENIUS timed out"))) {
+                close(channel);
+            }
+        }, connectTimeoutMs, TimeUnit.MILLISECONDS);
+
+        return future;
+    }
+
+    private CompletableFuture<Void> write(AsynchronousSocketChannel channel, ByteBuffer buffer) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        channel.write(buffer, readTimeoutMs, TimeUnit.MILLISECONDS, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer written, Void attachment) {
+                if (buffer.hasRemaining()) {
+                    channel.write(buffer, readTimeoutMs, TimeUnit.MILLISECONDS, null, this);
+                } else {
+                    future.complete(null);
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Reads until the buffer is full, completing with the flipped buffer
+     */
+    private CompletableFuture<ByteBuffer> readFully(AsynchronousSocketChannel channel, ByteBuffer buffer) {
+        CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+
+        channel.read(buffer, readTimeoutMs, TimeUnit.MILLISECONDS, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer read, Void attachment) {
+                if (read < 0) {
+                    future.completeExceptionally(new EOFException("The server closed the connection"));
+                } else if (buffer.hasRemaining()) {
+                    channel.read(buffer, readTimeoutMs, TimeUnit.MILLISECONDS, null, this);
+                } else {
+                    buffer.flip();
+                    future.complete(buffer);
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Reads until the end of the first line, completing with the line without its line ending
+     */
+    private CompletableFuture<String> readLine(AsynchronousSocketChannel channel, ByteBuffer buffer, ByteArrayOutputStream line) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+
+        channel.read(buffer, readTimeoutMs, TimeUnit.MILLISECONDS, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer read, Void attachment) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        future.complete(new String(line.toByteArray(), StandardCharsets.UTF_8).trim());
+                        return;
+                    }
+                    line.write(b);
+                }
+                buffer.clear();
+
+                if (read < 0) {
+                    future.completeExceptionally(new EOFException("The server closed the connection"));
+                } else {
+                    channel.read(buffer, readTimeoutMs, TimeUnit.MILLISECONDS, null, this);
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        return future;
+    }
+
+    private static void close(AsynchronousSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("An error occured while closing the connection to Z3GENIUS");
+        }
+    }
+}
@@ -4,25 +4,56 @@ import genius.core.Bid;
 import genius.core.actions.Action;
 import genius.core.issue.*;
 import genius.core.parties.AbstractNegotiationParty;
+import genius.core.uncertainty.BidRanking;
 import genius.core.utility.AbstractUtilitySpace;
 import genius.core.utility.AdditiveUtilitySpace;
-import genius.core.utility.EvaluatorDiscrete;
-import genius.core.utility.EvaluatorInteger;
-
-import java.io.BufferedReader;
+import genius.core.timeline.TimeLineInfo;
+import z3.LinearEstimator;
+import z3.ModelRequest;
+import z3.ModelResult;
+import z3.Z3Cancellation;
+import z3.Z3ParseException;
+import z3.Z3Service;
+
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.net.Socket;
+import java.nio.channels.InterruptedByTimeoutException;
 import java.nio.file.FileSystems;
-import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Z3niusParty extends AbstractNegotiationParty {
-    protected Socket socket;
-    protected BufferedReader in;
-    protected PrintWriter out;
+    private static final String HOST = "0.0.0.0";
+    private static final int PORT = 10211;
+
+    // Either "binary" or "text" - the binary protocol falls back to the text one if the server does not understand it
+    private static final String PROTOCOL = System.getProperty("z3genius.protocol", "binary");
+    // Either "socket" to use the Z3GENIUS program, or "embedded" to run the solver inside the agent's process - the
+    // socket mode keeps a crash in the native solver from taking down GENIUS
+    private static final String MODE = System.getProperty("z3genius.mode", "socket");
+    // Either "z3" to solve the ranking's constraints with the solver (in the mode above), or "linear" to fit them
+    // with the LinearEstimator in plain Java - which takes milliseconds and never loads the native solver
+    private static final String ESTIMATOR = System.getProperty("z3genius.estimator", "z3");
+
+    // The longest the agent waits for a connection, and for a model, in milliseconds
+    private static final long CONNECT_TIMEOUT = Long.getLong("z3genius.connect.ms", 2000);
+    private static final long MAX_DEADLINE = Long.getLong("z3genius.deadline.ms", 30000);
+    private static final long STARTUP_TIMEOUT = 10000;
+    // The most ranked bids the solver should be given, larger rankings are sampled down first - 0 leaves the server to
+    // only remove the bids which add no constraints
+    private static final int COMPRESS_TO = Integer.getInteger("z3genius.compress.max", 0);
+    // The fraction of the negotiation's remaining time which may be spent waiting for a model
+    private static final double DEADLINE_FRACTION = 0.1;
 
     protected double[] weightings;
 
@@ -30,148 +61,222 @@ public class Z3niusParty extends AbstractNegotiationParty {
      * estimateUtilitySpace (overridden from the GENIUS class)
      * - Connects to the Z3GENIUS program and sends a message containing the available data to the agent on the
      * domain and the preference bids
-     * - Waits for a response from the server and then parses these values into a utility space class
+     * - Waits for a response from the server, up to a deadline based on the negotiation's timeline, and then parses
+     * these values into a utility space class
+     * - Falls back to a local linear estimate if the server fails or does not respond in time
      * - Only run if the agent is not provided with the full preference profile
      */
     public AbstractUtilitySpace estimateUtilitySpace() {
-        System.out.println("Starting Connection");
-//        Process p = openZ3GENIUS();
-        startConnection();
-        System.out.println("Connection Started");
-        String modelRequest = getModelRequest();
-        System.out.println("Model Request Built");
-        try {
-            String[] data = sendCommand(modelRequest).split(";;;");
-            System.out.println("Message Sent");
-
-            int issueIndex = 0;
-            AdditiveUtilitySpace utilSpace = new AdditiveUtilitySpace(getDomain());
-
-            // Checks that the response is actually model information based on my protocol, otherwise null is returned
-            if (data[0].equals("MDL")) {
-                for (int i = 1; i < data.length; i++) {
-                    String currentCommand = data[i];
-
-                    switch (currentCommand) {
-                        // Checks if data is the estimated continuous values
-                        case "CON":
-                            EvaluatorInteger evalCon = new EvaluatorInteger();
-
-                            // Builds an evaluator object using the minimum and maximum possible utilties
-                            evalCon.setLinearFunction(Double.valueOf(data[++i]), Double.valueOf(data[++i]));
-
-                            utilSpace.addEvaluator(getDomain().getIssues().get(issueIndex++), evalCon);
-                            break;
-                        case "DIS":
-                            EvaluatorDiscrete evalDis = new EvaluatorDiscrete();
-                            IssueDiscrete issueDis = (IssueDiscrete) getDomain().getIssues().get(issueIndex++);
-                            int valueIndex = 0;
-
-                            while (!data[i + 1].equals("EDIS")) {
-                                // Adds an evaluation for each possible value in the discrete issue
-                                evalDis.setEvaluationDouble(
-                                        issueDis.getValue(valueIndex++),
-                                        Double.valueOf(data[++i])
-                                );
-                            }
-
-                            utilSpace.addEvaluator(issueDis, evalDis);
-                            break;
-                        case "WHT":
-                            weightings = new double[getDomain().getIssues().size()];
-
-                            if (issueIndex > 0) {
-                                issueIndex = 0;
-                            }
-
-                            // Adds the weights of each issue to the utility space also
-                            while (!data[i + 1].equals("EWHT")) {
-                                double weight = Double.valueOf(data[++i]);
-
-                                weightings[issueIndex] = weight;
-
-                                utilSpace.setWeight(getDomain().getIssues().get(issueIndex++), weight);
-                            }
-                            break;
-                        default:
-                            System.err.println("The provided command is not valid: " + currentCommand);
-                            throw new NullPointerException();
-                    }
+        BidRanking ranking = userModel.getBidRanking();
+        ModelRequest request = new ModelRequest(getDomain().getIssues(), ranking.getBidOrder(),
+                ranking.getLowUtility(), ranking.getHighUtility(), COMPRESS_TO);
 
-                    // Should close the currentCommand or throw an error if the message is invalid
-                    if (!data[++i].equals("E" + currentCommand)) {
-                        System.out.println("The closing command is not valid: " + data[i]);
-                        throw new NullPointerException();
-                    }
-                }
+        if (ESTIMATOR.equals("linear")) {
+            return toUtilitySpace(new LinearEstimator().estimate(request));
+        }
+
+        long deadline = getEstimationDeadline();
+        // Cancelling the future does not stop an embedded solve, which would keep holding one of the shared service's
+        // contexts - so the solve is stopped through its contexts as well
+        Z3Cancellation cancellation = new Z3Cancellation();
+        CompletableFuture<ModelResult> response = MODE.equals("embedded")
+                ? requestEmbeddedModel(Z3Service.getInstance(), request, cancellation)
+                : requestSocketModel(request, deadline);
+
+        try {
+            ModelResult result = response.get(deadline, TimeUnit.MILLISECONDS);
+            if (result.getStats() != null) {
+                System.out.println(result.getStats());
+            }
 
-                return utilSpace;
+            return toUtilitySpace(result);
+        } catch (TimeoutException t) {
+            response.cancel(true);
+            cancellation.cancel("The agent's deadline passed");
+            System.err.println("Z3GENIUS did not respond within " + deadline + "ms, estimating locally");
+        } catch (ExecutionException e) {
+            if (isParseError(e.getCause())) {
+                System.err.println("The message received was not valid, estimating locally");
             } else {
-                throw new NullPointerException();
+                System.err.println("The connection to Z3GENIUS failed, estimating locally: " +
+                        describeFailure(e.getCause()));
             }
-        } catch (NullPointerException n) {
-            System.err.println("The message received was not valid");
-            return null;
-        } finally {
-//            if(p != null) {
-//                try {
-//                    p.destroy();
-//                } catch(Exception e) {
-//                    System.err.println("The Z3GENIUS process could not be destroyed");
-//                }
-//            }
+        } catch (InterruptedException i) {
+            response.cancel(true);
+            cancellation.cancel("The agent was interrupted");
+            Thread.currentThread().interrupt();
         }
+
+        return toUtilitySpace(new LinearEstimator().estimate(request));
     }
 
-    private Process openZ3GENIUS() {
-        try {
-            String absolutePath = FileSystems.getDefault().getPath(".").toAbsolutePath().toString();
+    /**
+     * Sends the request to the Z3GENIUS program over a socket, in the binary protocol if it is being used - falling
+     * back to the text protocol if the server does not understand it
+     *
+     * @param request - the issues, ranked bids and bounds to build the model from
+     * @param deadline - the longest time to wait for the model, in milliseconds
+     * @return - the model which will be sent back by the server
+     */
+    private CompletableFuture<ModelResult> requestSocketModel(ModelRequest request, long deadline) {
+        Z3niusClient client = new Z3niusClient(HOST, PORT, Math.min(CONNECT_TIMEOUT, deadline), deadline);
 
-            ProcessBuilder builder = new ProcessBuilder(
-                    "java", "-jar", absolutePath + "/artifacts/Z3GENIUS_jar/Z3GENIUS.jar");
-            builder.redirectErrorStream(true);
-            Process p = builder.start();
-            Thread.sleep(5000);
+        if (!PROTOCOL.equals("binary")) {
+            return client.requestText(getModelRequest(), getDomain().getIssues().size());
+        }
 
-            return p;
-        } catch(IOException | InterruptedException i) {
-            System.err.println("There was a problem when opening the Z3GENIUS program, it may already be open");
+        CompletableFuture<ModelResult> response = new CompletableFuture<>();
+        CompletableFuture<ModelResult> binary = client.requestBinary(request);
+        AtomicReference<CompletableFuture<ModelResult>> text = new AtomicReference<>();
+
+        // If the server does not understand the binary protocol it closes the connection, so try the text one. Any
+        // other failure (e.g. a refused connection) would fail the text request in the same way, so it is passed on.
+        binary.whenComplete((result, e) -> {
+            if (e == null) {
+                response.complete(result);
+            } else if (!isProtocolRejection(e) || response.isDone()) {
+                response.completeExceptionally(e);
+            } else {
+                System.err.println("The server did not accept the binary protocol, falling back to text");
+                text.set(client.requestText(getModelRequest(), getDomain().getIssues().size()));
+                text.get().whenComplete((textResult, textError) -> {
+                    if (textError == null) {
+                        response.complete(textResult);
+                    } else {
+                        response.completeExceptionally(textError);
+                    }
+                });
+
+                // The response may have been cancelled while the text request was being sent
+                if (response.isCancelled()) {
+                    text.get().cancel(true);
+                }
+            }
+        });
+
+        // Cancelling the response (e.g. when the deadline passes) must reach the client's own futures, as those close
+        // the connections - otherwise each connection stays open until its read timeout
+        response.whenComplete((result, e) -> {
+            if (response.isCancelled()) {
+                binary.cancel(true);
+                if (text.get() != null) {
+                    text.get().cancel(true);
+                }
+            }
+        });
+
+        return response;
+    }
+
+    /**
+     * Builds the model with the solver in this process, on a separate thread so that the deadline still applies
+     *
+     * @param service - the service to build the model with
+     * @param request - the issues, ranked bids and bounds to build the model from
+     * @param cancellation - stops the solve if the deadline passes, freeing its context for the next agent
+     * @return - the model which will be built by the solver
+     */
+    private CompletableFuture<ModelResult> requestEmbeddedModel(Z3Service service, ModelRequest request,
+                                                                Z3Cancellation cancellation) {
+        return CompletableFuture.supplyAsync(() -> {
+            ModelResult result = service.buildModel(request, cancellation);
+            if (result == null) {
+                throw new CompletionException(new Z3ParseException());
+            }
+            return result;
+        }, job -> {
+            // A daemon thread, so that a solver which never finishes does not keep GENIUS running
+            Thread thread = new Thread(job, "z3genius-embedded");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * The time the agent is willing to wait for Z3GENIUS - a fraction of the time remaining in the negotiation,
+     * capped by the z3genius.deadline.ms property. Round based negotiations have no time limit, so only the cap is
+     * used for them.
+     *
+     * @return - the total deadline in milliseconds
+     */
+    protected long getEstimationDeadline() {
+        if (timeline != null && timeline.getType() == TimeLineInfo.Type.Time) {
+            double remaining = (1 - timeline.getTime()) * timeline.getTotalTime() * 1000;
+            return Math.max(1, Math.min(MAX_DEADLINE, (long) (remaining * DEADLINE_FRACTION)));
         }
 
-        return null;
+        return MAX_DEADLINE;
+    }
+
+    private static boolean isParseError(Throwable e) {
+        return e instanceof Z3ParseException
+                || (e instanceof CompletionException && e.getCause() instanceof Z3ParseException);
     }
 
     /**
-     * Opens a connection to the Z3GENIUS program over a socket, and uses readers and writers to
-     * send and receive data from the respective in/out streams
+     * @return - true if the binary request failed as the server does not understand the binary protocol, i.e. it
+     * closed the connection or replied with something other than a binary frame
      */
-    private void startConnection() {
-        try {
-            socket = new Socket("0.0.0.0", 10211);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        } catch (IOException e) {
-            System.err.println("There was an exception when opening the socket");
+    private static boolean isProtocolRejection(Throwable e) {
+        Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+        return cause instanceof EOFException || cause instanceof ProtocolException;
+    }
+
+    /**
+     * @return - a readable reason for a failed request, naming the underlying cause rather than its wrapper
+     */
+    private static String describeFailure(Throwable e) {
+        Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+
+        if (cause instanceof ConnectException) {
+            return "the connection was refused (" + cause.getMessage() + ")";
+        } else if (cause instanceof TimeoutException) {
+            return "the connection was not accepted in time";
+        } else if (cause instanceof InterruptedByTimeoutException) {
+            return "the server did not respond in time";
         }
+        return cause.toString();
     }
 
     /**
-     * Sends the msg parameter over the socket to the Z3GENIUS program
+     * Parses the estimated values of the model into a utility space class, also storing the weightings of each issue
      *
-     * @param msg - a string message, written in the custom protocol, to be sent
-     * @return - the response from the server, synchronously waited for using a loop
+     * @param result - the model built by the Z3GENIUS program
+     * @return - an additive utility space for the agent's domain
      */
-    private String sendCommand(String msg) {
+    protected AdditiveUtilitySpace toUtilitySpace(ModelResult result) {
+        weightings = new double[getDomain().getIssues().size()];
+        for (int issueIndex = 0; issueIndex < weightings.length; issueIndex++) {
+            weightings[issueIndex] = result.getWeight(issueIndex);
+        }
+
+        return result.toUtilitySpace(getDomain());
+    }
+
+    private Process openZ3GENIUS() {
         try {
-            System.out.println(msg);
-            out.println(msg);
-            String resp;
-            // Keep checking if the server responds until it does
-            while ((resp = in.readLine()) == null) ;
-
-            return resp;
-        } catch (IOException i) {
-            System.err.println("An error occured while reading and writing from the socket");
+            String absolutePath = FileSystems.getDefault().getPath(".").toAbsolutePath().toString();
+
+            ProcessBuilder builder = new ProcessBuilder(
+                    "java", "-jar", absolutePath + "/artifacts/Z3GENIUS_jar/Z3GENIUS.jar");
+            builder.redirectErrorStream(true);
+            Process p = builder.start();
+
+            // Rather than waiting a fixed time, poll the port until the server accepts a connection
+            long giveUp = System.currentTimeMillis() + STARTUP_TIMEOUT;
+            while (p.isAlive() && System.currentTimeMillis() < giveUp) {
+                try (Socket probe = new Socket()) {
+                    probe.connect(new InetSocketAddress(HOST, PORT), 100);
+                    return p;
+                } catch (IOException e) {
+                    Thread.sleep(50);
+                }
+            }
+
+            System.err.println("The Z3GENIUS program did not start listening in time");
+            return p;
+        } catch(IOException | InterruptedException i) {
+            System.err.println("There was a problem when opening the Z3GENIUS program, it may already be open");
         }
 
         return null;
@@ -226,6 +331,12 @@ public class Z3niusParty extends AbstractNegotiationParty {
             sb.append("EBID;;;");
         }
 
+        if (COMPRESS_TO > 0) {
+            sb.append("CMP;;;");
+            sb.append(COMPRESS_TO);
+            sb.append(";;;ECMP;;;");
+        }
+
         sb.append("BND;;;");
         sb.append(userModel.getBidRanking().getLowUtility());
         sb.append(";;;");
@@ -1,13 +1,17 @@
 package averageparty;
 
-import genius.core.Bid;
 import genius.core.uncertainty.ExperimentalUserModel;
 import genius.core.utility.AbstractUtilitySpace;
 import socketparty.SocketParty;
+import utils.AccuracyEvaluator;
 
-import java.util.List;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class AverageParty extends SocketParty {
+    // A CSV file to write the estimated and real utility of every ranked bid to, if set
+    private static final String DETAIL_FILE = System.getProperty("z3genius.accuracy.detail");
+
     @Override
     public String getDescription() {
         return "Calculates the differences between the estimated and real utilities";
@@ -24,31 +28,10 @@ public class AverageParty extends SocketParty {
         AbstractUtilitySpace space = super.estimateUtilitySpace();
         AbstractUtilitySpace realSpace = ((ExperimentalUserModel) userModel).getRealUtilitySpace();
 
-        List<Bid> rankedBids = userModel.getBidRanking().getBidOrder();
-
-        double diffSum = 0.0;
-        int withinPointOne = 0;
-
-        for(int i = 0; i < rankedBids.size(); i++) {
-            double diff = Math.abs(space.getUtility(rankedBids.get(i)) - realSpace.getUtility(rankedBids.get(i)));
-            System.out.println(i + ": ");
-            System.out.println("Estimated: " + space.getUtility(rankedBids.get(i)));
-            System.out.println("Real: " + realSpace.getUtility(rankedBids.get(i)));
-            System.out.println("Difference: " + diff);
-            System.out.println("----------------");
-
-            diffSum += diff;
-
-            if(diff <= 0.1) {
-                withinPointOne++;
-            }
-        }
-
-        diffSum = diffSum / rankedBids.size();
-
-        System.out.println("Average Difference: " + diffSum);
-        System.out.println("Percentage within 0.1 of real utility: " + (((1.0 * withinPointOne) / (1.0 * rankedBids.size())) * 100) + "%");
+        Path detailFile = (DETAIL_FILE != null) ? Paths.get(DETAIL_FILE) : null;
+        System.out.println(AccuracyEvaluator.evaluate(space, realSpace, userModel.getBidRanking().getBidOrder(),
+                detailFile));
 
         return space;
     }
-}
\ No newline at end of file
+}
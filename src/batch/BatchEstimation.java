@@ -0,0 +1,265 @@
+package batch;
+
+import genius.core.Bid;
+import genius.core.Domain;
+import genius.core.DomainImpl;
+import genius.core.utility.AdditiveUtilitySpace;
+import utils.AccuracyEvaluator;
+import utils.AccuracyMetrics;
+import z3.Estimator;
+import z3.LinearEstimator;
+import z3.ModelRequest;
+import z3.ModelResult;
+import z3.Z3Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Estimates many preference profiles without GENIUS, so the accuracy and cost of the estimator can be compared between
+ * changes. Each directory under the given one which holds a domain file (with "domain" in its name) is searched for
+ * profiles, and for every profile and ranking size a random ranking is drawn from the real utility space, estimated
+ * (with the solver, or the estimator named by z3genius.estimator) and scored against the real utilities. The
+ * instances are estimated in parallel and written to a CSV file, one row each.
+ *
+ * Usage: BatchEstimation <directory> <ranking sizes, e.g. 10,50,200> <output CSV> [seed]
+ */
+public class BatchEstimation {
+    // The number of instances estimated at once, each with its own solver context
+    private static final int THREADS = Integer.getInteger("z3genius.batch.threads",
+            Runtime.getRuntime().availableProcessors());
+    // Either "z3" to estimate with the solver, or "linear" to estimate with the LinearEstimator
+    private static final String ESTIMATOR = System.getProperty("z3genius.estimator", "z3");
+
+    private static final String HEADER = "domain,profile,issues,ranking,solved,solve_ms,allocated_bytes," +
+            "mae,max_error,within_0.1,spearman,kendall_tau";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: BatchEstimation <directory> <ranking sizes> <output CSV> [seed]");
+            System.exit(1);
+        }
+
+        Path directory = Paths.get(args[0]);
+        int[] sizes;
+        try {
+            sizes = Stream.of(args[1].split(",")).mapToInt(size -> Integer.parseInt(size.trim())).toArray();
+        } catch (NumberFormatException e) {
+            sizes = new int[]{0};
+        }
+
+        // Each ranking needs at least one bid, which holds both the low and high utility bounds
+        if (IntStream.of(sizes).anyMatch(size -> size < 1)) {
+            System.err.println("The ranking sizes must be positive whole numbers, e.g. 10,50,200: " + args[1]);
+            System.exit(1);
+        }
+
+        Path output = Paths.get(args[2]);
+        long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42L;
+
+        List<Instance> instances = findInstances(directory, sizes, seed);
+        System.out.println("Estimating " + instances.size() + " instances on " + THREADS + " threads");
+
+        Z3Service service = ESTIMATOR.equals("linear") ? null : new Z3Service(THREADS);
+        Estimator estimator = (service != null) ? service : new LinearEstimator();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<String>> rows = new ArrayList<>();
+
+        for (Instance instance : instances) {
+            rows.add(executor.submit(() -> instance.run(estimator)));
+        }
+
+        // The rows are written in the order the instances were found, whichever order they finish in
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+
+            for (int i = 0; i < rows.size(); i++) {
+                try {
+                    writer.write(rows.get(i).get());
+                    writer.newLine();
+                } catch (ExecutionException e) {
+                    System.err.println("Could not estimate " + instances.get(i) + ": " + e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdown();
+
+            // The solver contexts are only destroyed once every instance using them has finished
+            if (service != null) {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                service.close();
+            }
+        }
+
+        System.out.println("Results written to " + output);
+    }
+
+    /**
+     * Pairs every profile with the domain file in the same directory, and with every ranking size
+     */
+    private static List<Instance> findInstances(Path directory, int[] sizes, long seed) throws IOException {
+        List<Path> directories;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            directories = walk.filter(Files::isDirectory).sorted().collect(Collectors.toList());
+        }
+
+        List<Instance> instances = new ArrayList<>();
+        for (Path dir : directories) {
+            List<Path> files;
+            try (Stream<Path> list = Files.list(dir)) {
+                files = list.filter(file -> file.toString().toLowerCase(Locale.ROOT).endsWith(".xml"))
+                        .sorted().collect(Collectors.toList());
+            }
+
+            List<Path> domains = files.stream().filter(BatchEstimation::isDomainFile).collect(Collectors.toList());
+            if (domains.isEmpty()) {
+                continue;
+            } else if (domains.size() > 1) {
+                System.err.println("Skipping " + dir + " as it holds more than one domain file");
+                continue;
+            }
+
+            Domain domain;
+            try {
+                domain = new DomainImpl(domains.get(0).toString());
+            } catch (Exception e) {
+                System.err.println("Could not load the domain " + domains.get(0) + ": " + e.getMessage());
+                continue;
+            }
+
+            for (Path profile : files) {
+                if (isDomainFile(profile)) {
+                    continue;
+                }
+
+                AdditiveUtilitySpace realSpace;
+                try {
+                    realSpace = new AdditiveUtilitySpace(domain, profile.toString());
+                } catch (Exception e) {
+                    System.err.println("Could not load the profile " + profile + ": " + e.getMessage());
+                    continue;
+                }
+
+                for (int size : sizes) {
+                    instances.add(new Instance(domains.get(0), profile, domain, realSpace, size, seed));
+                }
+            }
+        }
+
+        return instances;
+    }
+
+    private static boolean isDomainFile(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).contains("domain");
+    }
+
+    /**
+     * One profile estimated from one ranking size
+     */
+    private static class Instance {
+        private final Path domainFile;
+        private final Path profileFile;
+        private final Domain domain;
+        private final AdditiveUtilitySpace realSpace;
+        private final int size;
+        private final long seed;
+
+        Instance(Path domainFile, Path profileFile, Domain domain, AdditiveUtilitySpace realSpace, int size,
+                 long seed) {
+            this.domainFile = domainFile;
+            this.profileFile = profileFile;
+            this.domain = domain;
+            this.realSpace = realSpace;
+            this.size = size;
+            this.seed = seed;
+        }
+
+        /**
+         * @param estimator - the estimator shared by every instance
+         * @return - the CSV row of the instance
+         */
+        String run(Estimator estimator) {
+            List<Bid> ranking = randomRanking();
+            ModelRequest request = new ModelRequest(domain.getIssues(), ranking,
+                    realSpace.getUtility(ranking.get(0)), realSpace.getUtility(ranking.get(ranking.size() - 1)));
+
+            // Only the memory allocated by this thread is counted, as the other instances are running alongside it -
+            // the native memory used by the solver is not included
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long allocatedBefore = allocatedBytes(threads);
+            long start = System.nanoTime();
+
+            ModelResult result = estimator.estimate(request);
+
+            long solveMs = (System.nanoTime() - start) / 1000000;
+            long allocated = allocatedBytes(threads) - allocatedBefore;
+
+            String row = String.join(",", domainFile.getFileName().toString(),
+                    profileFile.getFileName().toString(), Integer.toString(domain.getIssues().size()),
+                    Integer.toString(ranking.size()), Boolean.toString(result != null), Long.toString(solveMs),
+                    (allocatedBefore >= 0) ? Long.toString(allocated) : "");
+
+            if (result == null) {
+                return row + ",,,,,";
+            }
+
+            AccuracyMetrics metrics = AccuracyEvaluator.evaluate(result.toUtilitySpace(domain), realSpace, ranking,
+                    null);
+            return row + String.format(Locale.ROOT, ",%.6f,%.6f,%.6f,%.6f,%.6f", metrics.getMeanAbsoluteError(),
+                    metrics.getMaxError(), metrics.getWithinPointOne(), metrics.getSpearman(),
+                    metrics.getKendallTau());
+        }
+
+        /**
+         * Draws distinct random bids from the domain and ranks them by their real utility, lowest first as GENIUS does
+         */
+        private List<Bid> randomRanking() {
+            // The same profile and size always draws the same ranking, whichever thread runs it
+            Random random = new Random(seed ^ profileFile.toString().hashCode() ^ ((long) size << 32));
+            int target = (int) Math.min(size, domain.getNumberOfPossibleBids());
+
+            Set<Bid> bids = new LinkedHashSet<>();
+            while (bids.size() < target) {
+                bids.add(domain.getRandomBid(random));
+            }
+
+            List<Bid> ranking = new ArrayList<>(bids);
+            ranking.sort((a, b) -> Double.compare(realSpace.getUtility(a), realSpace.getUtility(b)));
+            return ranking;
+        }
+
+        private static long allocatedBytes(ThreadMXBean threads) {
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+                        Thread.currentThread().getId());
+            }
+            return -1;
+        }
+
+        @Override
+        public String toString() {
+            return profileFile + " (" + size + " bids)";
+        }
+    }
+}
@@ -6,15 +6,20 @@ import genius.core.actions.Action;
 import genius.core.actions.Offer;
 import genius.core.parties.AbstractNegotiationParty;
 import genius.core.parties.NegotiationInfo;
+import genius.core.utility.AdditiveUtilitySpace;
+import utils.BidSpaceIndex;
 
 import java.util.List;
 
 public class SimpleParty extends AbstractNegotiationParty {
     private final double UTIL_THRESHOLD = 0.85;
 
+    private BidSpaceIndex bidIndex;
+
     @Override
     public void init(NegotiationInfo info) {
         super.init(info);
+        bidIndex = new BidSpaceIndex((AdditiveUtilitySpace) utilitySpace);
     }
 
     @Override
@@ -37,14 +42,8 @@ public class SimpleParty extends AbstractNegotiationParty {
             }
         }
 
-        // Otherwise, return a randomly generated bid
-        Bid nextBid = generateRandomBid();
-
-        // Not sure this is the best method of doing so
-        // but this is a simple fix to only generate high utility bids which marginally improves bid utility
-        while(getUtility(nextBid) < UTIL_THRESHOLD) {
-            nextBid = generateRandomBid();
-        }
+        // Otherwise, return a random bid which has a high enough utility
+        Bid nextBid = bidIndex.randomAbove(UTIL_THRESHOLD, rand);
 
         // Send this offer to the other parties
         return new Offer(getPartyId(), nextBid);
@@ -5,16 +5,21 @@ import genius.core.actions.Accept;
 import genius.core.actions.Action;
 import genius.core.actions.Offer;
 import genius.core.parties.NegotiationInfo;
+import genius.core.utility.AdditiveUtilitySpace;
 import CONAN.Z3niusParty;
+import utils.BidSpaceIndex;
 
 import java.util.List;
 
 public class SocketParty extends Z3niusParty {
     //    private Process process;
 
+    private BidSpaceIndex bidIndex;
+
     @Override
     public void init(NegotiationInfo info) {
         super.init(info);
+        bidIndex = new BidSpaceIndex((AdditiveUtilitySpace) utilitySpace);
 
         // This code will automatically launch the Z3GENIUS program if uncommented
 //        try {
@@ -39,14 +44,9 @@ public class SocketParty extends Z3niusParty {
             }
         }
 
-        // Otherwise, return a randomly generated bid
-        Bid nextBid = generateRandomBid();
+        // Otherwise, return a random bid which has a high enough utility
+        Bid nextBid = bidIndex.randomAbove(0.8, rand);
 
-        // Not sure this is the best method of doing so
-        // but this is a simple fix to only generate high utility bids which marginally improves bid utility
-        while (getUtility(nextBid) < 0.8) {
-            nextBid = generateRandomBid();
-        }
         // Send this offer to the other parties
         return new Offer(getPartyId(), nextBid);
     }
@@ -6,21 +6,44 @@ import genius.core.actions.Accept;
 import genius.core.actions.Action;
 import genius.core.actions.Offer;
 import genius.core.parties.AbstractNegotiationParty;
+import genius.core.parties.NegotiationInfo;
 import genius.core.uncertainty.BidRanking;
 import genius.core.utility.*;
+import utils.BidSpaceIndex;
+import z3.LinearEstimator;
+import z3.ModelRequest;
+import z3.RankingCompressor;
+
 import java.util.List;
 
 public class UncertainParty extends AbstractNegotiationParty {
     private final double UTIL_THRESHOLD = 0.85;
+    // The most ranked bids the estimate is fitted to - the fit grows with the ranking, so larger rankings are
+    // compressed first to keep the estimate within a few milliseconds
+    private static final int MAX_RANKED_BIDS = Integer.getInteger("z3genius.uncertain.max", 2000);
+
+    private BidSpaceIndex bidIndex;
 
+    /**
+     * Estimates the utility space in this process with the LinearEstimator, so the agent needs neither the Z3GENIUS
+     * server nor the native solver
+     */
     @Override
     public AbstractUtilitySpace estimateUtilitySpace() {
         BidRanking bidRanking = userModel.getBidRanking();
         Domain domain = getDomain();
 
-//        Z3Solver z3 = new Z3Solver();
-//        return z3.estimatePreferences(bidRanking, domain);
-        return null;
+        ModelRequest request = new ModelRequest(domain.getIssues(), bidRanking.getBidOrder(),
+                bidRanking.getLowUtility(), bidRanking.getHighUtility());
+        RankingCompressor compressor = new RankingCompressor(MAX_RANKED_BIDS);
+
+        return new LinearEstimator().estimate(compressor.compress(request)).toUtilitySpace(domain);
+    }
+
+    @Override
+    public void init(NegotiationInfo info) {
+        super.init(info);
+        bidIndex = new BidSpaceIndex((AdditiveUtilitySpace) utilitySpace);
     }
 
     @Override
@@ -39,14 +62,8 @@ public class UncertainParty extends AbstractNegotiationParty {
             }
         }
 
-        // Otherwise, return a randomly generated bid
-        Bid nextBid = generateRandomBid();
-
-        // Not sure this is the best method of doing so
-        // but this is a simple fix to only generate high utility bids which marginally improves bid utility
-        while(getUtility(nextBid) < UTIL_THRESHOLD) {
-            nextBid = generateRandomBid();
-        }
+        // Otherwise, return a random bid which has a high enough utility
+        Bid nextBid = bidIndex.randomAbove(UTIL_THRESHOLD, rand);
 
         // Send this offer to the other parties
         return new Offer(getPartyId(), nextBid);
@@ -0,0 +1,169 @@
+package utils;
+
+import genius.core.Bid;
+import genius.core.utility.AbstractUtilitySpace;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the accuracy of an estimated utility space against the real one, in a single pass over the bids. The
+ * utility of each bid is only calculated once in each space, and the per-bid detail is only written out when a file
+ * is given for it.
+ */
+public class AccuracyEvaluator {
+    /**
+     * @param estimated - the estimated utility space
+     * @param real - the real utility space
+     * @param bids - the bids to compare the spaces over, i.e. the user's bid ranking
+     * @param detailFile - a CSV file to write the utilities of each bid to, or null to not write any detail
+     * @return - the accuracy metrics
+     */
+    public static AccuracyMetrics evaluate(AbstractUtilitySpace estimated, AbstractUtilitySpace real, List<Bid> bids,
+                                           Path detailFile) {
+        int n = bids.size();
+        double[] estimatedUtilities = new double[n];
+        double[] realUtilities = new double[n];
+
+        double diffSum = 0.0, maxDiff = 0.0;
+        int withinPointOne = 0;
+
+        for (int i = 0; i < n; i++) {
+            estimatedUtilities[i] = estimated.getUtility(bids.get(i));
+            realUtilities[i] = real.getUtility(bids.get(i));
+
+            double diff = Math.abs(estimatedUtilities[i] - realUtilities[i]);
+            diffSum += diff;
+            maxDiff = Math.max(maxDiff, diff);
+
+            if (diff <= 0.1) {
+                withinPointOne++;
+            }
+        }
+
+        if (detailFile != null) {
+            writeDetail(detailFile, estimatedUtilities, realUtilities);
+        }
+
+        return new AccuracyMetrics(
+                n,
+                (n > 0) ? diffSum / n : 0.0,
+                maxDiff,
+                (n > 0) ? (1.0 * withinPointOne) / n : 0.0,
+                Spearman.coefficient(realUtilities, estimatedUtilities),
+                kendallTau(realUtilities, estimatedUtilities)
+        );
+    }
+
+    private static void writeDetail(Path detailFile, double[] estimatedUtilities, double[] realUtilities) {
+        try (BufferedWriter writer = Files.newBufferedWriter(detailFile, StandardCharsets.UTF_8)) {
+            writer.write("bid,estimated,real,difference");
+            writer.newLine();
+
+            for (int i = 0; i < estimatedUtilities.length; i++) {
+                writer.write(i + "," + estimatedUtilities[i] + "," + realUtilities[i] + "," +
+                        Math.abs(estimatedUtilities[i] - realUtilities[i]));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            System.err.println("The accuracy detail could not be written to " + detailFile);
+        }
+    }
+
+    /**
+     * Calculates Kendall's tau-b of two sets of scores in O(n log n), using Knight's algorithm - the items are sorted
+     * by the first score, and the discordant pairs are then counted as the swaps made by a merge sort on the second
+     *
+     * @param x - a score for each item
+     * @param y - a second score for each item, in the same order
+     * @return - the coefficient, between -1 and 1, or 0 if either set of scores are all the same
+     */
+    public static double kendallTau(double[] x, double[] y) {
+        int n = x.length;
+        if (n < 2) {
+            return 0.0;
+        }
+
+        // Sort the items by x, breaking ties by y
+        Integer[] boxed = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, (a, b) -> {
+            int byX = Double.compare(x[a], x[b]);
+            return (byX != 0) ? byX : Double.compare(y[a], y[b]);
+        });
+
+        double[] sortedY = new double[n];
+        long xTies = 0, jointTies = 0;
+        long xRun = 1, jointRun = 1;
+
+        for (int i = 0; i < n; i++) {
+            sortedY[i] = y[boxed[i]];
+
+            if (i > 0) {
+                boolean sameX = x[boxed[i]] == x[boxed[i - 1]];
+                boolean sameY = sortedY[i] == sortedY[i - 1];
+
+                xRun = sameX ? xRun + 1 : 1;
+                jointRun = (sameX && sameY) ? jointRun + 1 : 1;
+                xTies += sameX ? xRun - 1 : 0;
+                jointTies += (sameX && sameY) ? jointRun - 1 : 0;
+            }
+        }
+
+        long swaps = mergeSortSwaps(sortedY, new double[n], 0, n);
+
+        // Once sorted, tied y values are next to each other
+        long yTies = 0, yRun = 1;
+        for (int i = 1; i < n; i++) {
+            yRun = (sortedY[i] == sortedY[i - 1]) ? yRun + 1 : 1;
+            yTies += yRun - 1;
+        }
+
+        long pairs = (long) n * (n - 1) / 2;
+        double denominator = Math.sqrt((double) (pairs - xTies) * (pairs - yTies));
+        if (denominator == 0.0) {
+            return 0.0;
+        }
+
+        return (pairs - xTies - yTies + jointTies - 2.0 * swaps) / denominator;
+    }
+
+    /**
+     * Sorts values[from, to) and returns the number of swaps an insertion sort would have needed
+     */
+    private static long mergeSortSwaps(double[] values, double[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return 0;
+        }
+
+        int mid = (from + to) >>> 1;
+        long swaps = mergeSortSwaps(values, buffer, from, mid) + mergeSortSwaps(values, buffer, mid, to);
+
+        int left = from, right = mid, out = from;
+        while (left < mid && right < to) {
+            if (values[right] < values[left]) {
+                // The value jumps ahead of every value remaining in the left half
+                swaps += mid - left;
+                buffer[out++] = values[right++];
+            } else {
+                buffer[out++] = values[left++];
+            }
+        }
+        while (left < mid) {
+            buffer[out++] = values[left++];
+        }
+        while (right < to) {
+            buffer[out++] = values[right++];
+        }
+
+        System.arraycopy(buffer, from, values, from, to - from);
+        return swaps;
+    }
+}
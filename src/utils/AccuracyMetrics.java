@@ -0,0 +1,63 @@
+package utils;
+
+/**
+ * How closely an estimated utility space matches the real one over a bid ranking
+ */
+public final class AccuracyMetrics {
+    private final int bidCount;
+    private final double meanAbsoluteError;
+    private final double maxError;
+    private final double withinPointOne;
+    private final double spearman;
+    private final double kendallTau;
+
+    public AccuracyMetrics(int bidCount, double meanAbsoluteError, double maxError, double withinPointOne,
+                           double spearman, double kendallTau) {
+        this.bidCount = bidCount;
+        this.meanAbsoluteError = meanAbsoluteError;
+        this.maxError = maxError;
+        this.withinPointOne = withinPointOne;
+        this.spearman = spearman;
+        this.kendallTau = kendallTau;
+    }
+
+    public int getBidCount() {
+        return bidCount;
+    }
+
+    /**
+     * @return - the average difference between the estimated and real utility of each bid
+     */
+    public double getMeanAbsoluteError() {
+        return meanAbsoluteError;
+    }
+
+    /**
+     * @return - the largest difference between the estimated and real utility of any bid
+     */
+    public double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * @return - the fraction of bids whose estimated utility is within 0.1 of the real utility
+     */
+    public double getWithinPointOne() {
+        return withinPointOne;
+    }
+
+    public double getSpearman() {
+        return spearman;
+    }
+
+    public double getKendallTau() {
+        return kendallTau;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Bids: %d, Average Difference: %.4f, Max Difference: %.4f, Within 0.1: %.1f%%, " +
+                        "Spearman: %.4f, Kendall Tau: %.4f",
+                bidCount, meanAbsoluteError, maxError, withinPointOne * 100, spearman, kendallTau);
+    }
+}
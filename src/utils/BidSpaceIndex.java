@@ -0,0 +1,69 @@
+package utils;
+
+import CONAN.OutcomeSpaceEnumerator;
+import CONAN.UtilityModel;
+import genius.core.Bid;
+import genius.core.Domain;
+import genius.core.issue.Issue;
+import genius.core.utility.AdditiveUtilitySpace;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Finds random bids above a utility threshold without generating random bids until one is good enough. The bids are
+ * searched for with the OutcomeSpaceEnumerator, which skips every combination of values that cannot reach the
+ * threshold - so nothing is materialised up front, and a bid above the threshold is always found if one exists.
+ */
+public class BidSpaceIndex {
+    // The most bids above the threshold sampled for each offer, which one is offered is chosen at random
+    private static final int SAMPLE_SIZE = Integer.getInteger("z3genius.index.sample", 100);
+    // The longest the search for each offer may run for, in nanoseconds
+    private static final long SEARCH_BUDGET_NANOS = 10000000L;
+
+    private final OutcomeSpaceEnumerator outcomeSpace;
+    private final Bid bestBid;
+    private final double bestUtility;
+
+    /**
+     * @param utilitySpace - the utility space to search the bids of its domain by
+     */
+    public BidSpaceIndex(AdditiveUtilitySpace utilitySpace) {
+        Domain domain = utilitySpace.getDomain();
+        List<Issue> issues = domain.getIssues();
+
+        double[] weightings = new double[issues.size()];
+        for (int i = 0; i < weightings.length; i++) {
+            weightings[i] = utilitySpace.getWeight(issues.get(i));
+        }
+
+        UtilityModel utilityModel = new UtilityModel(issues, utilitySpace, weightings);
+        outcomeSpace = new OutcomeSpaceEnumerator(domain, utilityModel);
+        bestBid = outcomeSpace.descending().next();
+        bestUtility = utilityModel.getUtility(bestBid);
+    }
+
+    /**
+     * @param threshold - the lowest utility the bid may have
+     * @param random - the random generator to choose the bid with
+     * @return - a random bid with at least the threshold's utility, or the best bid if there are none
+     */
+    public Bid randomAbove(double threshold, Random random) {
+        if (threshold >= bestUtility) {
+            return bestBid;
+        }
+
+        // The range is centred between the threshold and the best bid, so it covers every bid above the threshold
+        List<Bid> bids = outcomeSpace.sampleWithinRange((threshold + bestUtility) / 2, (bestUtility - threshold) / 2,
+                SAMPLE_SIZE, SEARCH_BUDGET_NANOS, random);
+
+        return bids.isEmpty() ? bestBid : bids.get(random.nextInt(bids.size()));
+    }
+
+    /**
+     * @return - the bid with the highest utility
+     */
+    public Bid getBestBid() {
+        return bestBid;
+    }
+}
@@ -4,57 +4,112 @@ import genius.core.Bid;
 import genius.core.uncertainty.UserModel;
 import genius.core.utility.AbstractUtilitySpace;
 
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
 
 public class Spearman {
+    // Rankings at least this large are sorted in parallel
+    private static final int PARALLEL_SORT_THRESHOLD = 1 << 13;
+
     public static double coefficient(AbstractUtilitySpace estimated, UserModel userModel) {
         List<Bid> geniusRankedBids = userModel.getBidRanking().getBidOrder();
 
-        List<Bid> z3RankedBids = new ArrayList<>();
-        z3RankedBids.addAll(geniusRankedBids);      // Create a copy of the bid rankings
-        // Use a comparator object to sort the bid objects by their respective utilities
-        z3RankedBids.sort(new Comparator<Bid>() {
-            @Override
-            public int compare(Bid o1, Bid o2) {
-                double uo1 = estimated.getUtility(o1);
-                double uo2 = estimated.getUtility(o2);
-
-                if (uo1 < uo2) {
-                    return -1;
-                } else if (uo1 > uo2) {
-                    return 1;
-                }
-                return 0;
-            }
-        });
+        // The real rank of each bid is its position in the GENIUS ranking, and the estimated utilities are only
+        // calculated once rather than for every comparison of a sort
+        double[] realRanks = new double[geniusRankedBids.size()];
+        double[] estimatedUtilities = new double[geniusRankedBids.size()];
+
+        for (int i = 0; i < geniusRankedBids.size(); i++) {
+            realRanks[i] = i;
+            estimatedUtilities[i] = estimated.getUtility(geniusRankedBids.get(i));
+        }
 
-        return calcCoefficient(z3RankedBids, geniusRankedBids);
+        return coefficient(realRanks, estimatedUtilities);
     }
 
     /**
-     * A list of ranked bids in order to calculate the Spearman's Coefficient of the two
-     * rankings
+     * Calculates the Spearman's Coefficient of two sets of scores for the same items, i.e. the real and estimated
+     * utilities of each bid. Tied scores share the average of their ranks, and the coefficient is the correlation of
+     * the ranks - which is the same as the usual 1 - 6 * sum(d^2) / (n * (n^2 - 1)) formula when there are no ties.
      *
-     * @param listOne - a ranked list of bids, i.e. the estimated bid ranking
-     * @param listTwo - a second ranked list of bids, i.e. the real bid ranking
-     * @return
+     * @param scoresOne - a score for each item, i.e. the real utilities or ranks
+     * @param scoresTwo - a second score for each item, in the same order, i.e. the estimated utilities
+     * @return - the coefficient, between -1 and 1, or 0 if either set of scores are all the same
      */
-    private static double calcCoefficient(List<Bid> listOne, List<Bid> listTwo) {
-        double d2Sum = 0;
-        double n = listOne.size();
+    public static double coefficient(double[] scoresOne, double[] scoresTwo) {
+        return pearson(ranks(scoresOne), ranks(scoresTwo));
+    }
 
-        // Calculate the sum of d^2 for each bid
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                if (listOne.get(i).equals(listTwo.get(j))) {
-                    d2Sum += Math.pow(Math.abs(i - j), 2);
-                }
+    /**
+     * Ranks each score from 1 (the lowest) upwards, giving tied scores the average of the ranks they cover
+     */
+    static double[] ranks(double[] scores) {
+        double[] sorted = scores.clone();
+        if (sorted.length >= PARALLEL_SORT_THRESHOLD) {
+            Arrays.parallelSort(sorted);
+        } else {
+            Arrays.sort(sorted);
+        }
+
+        double[] ranks = new double[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            int first = firstIndexOf(sorted, scores[i]);
+            int last = lastIndexOf(sorted, scores[i]);
+            ranks[i] = (first + last) / 2.0 + 1;
+        }
+        return ranks;
+    }
+
+    private static int firstIndexOf(double[] sorted, double value) {
+        int low = 0, high = sorted.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Double.compare(sorted[mid], value) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
         }
+        return low;
+    }
 
-        // Do the Spearman's Coefficient calculation
-        return 1 - ((6 * d2Sum) / (n * (Math.pow(n, 2) - 1)));
+    private static int lastIndexOf(double[] sorted, double value) {
+        int low = 0, high = sorted.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (Double.compare(sorted[mid], value) > 0) {
+                high = mid - 1;
+            } else {
+                low = mid;
+            }
+        }
+        return low;
+    }
+
+    private static double pearson(double[] x, double[] y) {
+        int n = x.length;
+        if (n < 2) {
+            return 0.0;
+        }
+
+        double meanX = 0.0, meanY = 0.0;
+        for (int i = 0; i < n; i++) {
+            meanX += x[i];
+            meanY += y[i];
+        }
+        meanX /= n;
+        meanY /= n;
+
+        double covariance = 0.0, varianceX = 0.0, varianceY = 0.0;
+        for (int i = 0; i < n; i++) {
+            covariance += (x[i] - meanX) * (y[i] - meanY);
+            varianceX += (x[i] - meanX) * (x[i] - meanX);
+            varianceY += (y[i] - meanY) * (y[i] - meanY);
+        }
+
+        if (varianceX == 0.0 || varianceY == 0.0) {
+            return 0.0;
+        }
+        return covariance / Math.sqrt(varianceX * varianceY);
     }
 }